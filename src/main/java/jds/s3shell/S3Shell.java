@@ -34,21 +34,55 @@ import asg.cliche.Param;
 import asg.cliche.Shell;
 import asg.cliche.ShellFactory;
 import asg.cliche.asg.cliche.ext.ShellCommandHandler;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3Client;
-import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
 import com.amazonaws.services.s3.model.ObjectListing;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.PutObjectResult;
-import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import jds.s3shell.catalog.Catalog;
+import jds.s3shell.catalog.CatalogEntry;
+import jds.s3shell.catalog.CatalogManager;
 import jds.s3shell.entities.Bucket;
+import jds.s3shell.inventory.Inventory;
+import jds.s3shell.inventory.InventoryLoader;
+import jds.s3shell.inventory.InventoryManager;
+import jds.s3shell.listing.DiskUsage;
+import jds.s3shell.listing.KeyStoreBenchmark;
+import jds.s3shell.listing.ListingBenchmark;
+import jds.s3shell.listing.ListingCache;
+import jds.s3shell.listing.ListingPaginator;
+import jds.s3shell.listing.ListingRenderer;
+import jds.s3shell.listing.MetadataScanner;
+import jds.s3shell.listing.ObjectPages;
+import jds.s3shell.listing.PageMatcher;
+import jds.s3shell.listing.PatternPrefix;
+import jds.s3shell.listing.PrefixTree;
+import jds.s3shell.listing.ShardedLister;
+import jds.s3shell.transfer.BandwidthGovernor;
+import jds.s3shell.transfer.BatchEngine;
+import jds.s3shell.transfer.CopyEngine;
+import jds.s3shell.transfer.DeleteEngine;
+import jds.s3shell.transfer.DownloadEngine;
+import jds.s3shell.transfer.Job;
+import jds.s3shell.transfer.JobManager;
+import jds.s3shell.transfer.SyncEngine;
+import jds.s3shell.transfer.Throttle;
+import jds.s3shell.transfer.TransferPlan;
+import jds.s3shell.transfer.TransferPlanner;
+import jds.s3shell.transfer.TransferSettings;
+import jds.s3shell.transfer.UploadEngine;
+import jds.s3shell.util.ByteBufferPool;
+import jds.s3shell.util.ByteSizes;
+import jds.s3shell.util.CommandFlags;
+import jds.s3shell.util.DownloadBenchmark;
 import jds.s3shell.util.DownloadProgress;
 import jds.s3shell.util.StringPaddingUtil;
 import org.apache.commons.io.FileUtils;
@@ -67,14 +101,17 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.Reader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 
@@ -92,11 +129,56 @@ public class S3Shell implements ShellCommandHandler {
 
     private final static String BUCKET_STORAGE_FILE_NAME = "buckets.s3sh";
     private final static String COMMAND_STORAGE_FILE_NAME = "commands.s3sh";
+    // S3 accepts a few thousand LIST requests per second per prefix; stay well below that
+    private final static int MAX_TREE_CONCURRENCY = 64;
+    private final static String DRY_RUN_NEEDS_RECURSION = "--dry-run plans recursive commands; add -r";
 
 
     @Autowired
     private DownloadProgress downloadProgress;
 
+    @Autowired
+    private DownloadEngine downloadEngine;
+
+    @Autowired
+    private UploadEngine uploadEngine;
+
+    @Autowired
+    private SyncEngine syncEngine;
+
+    @Autowired
+    private DeleteEngine deleteEngine;
+
+    @Autowired
+    private CopyEngine copyEngine;
+
+    @Autowired
+    private BatchEngine batchEngine;
+
+    @Autowired
+    private TransferPlanner transferPlanner;
+
+    @Autowired
+    private TransferSettings transferSettings;
+
+    @Autowired
+    private ByteBufferPool bufferPool;
+
+    @Autowired
+    private BandwidthGovernor bandwidthGovernor;
+
+    @Autowired
+    private JobManager jobManager;
+
+    @Autowired
+    private CatalogManager catalogManager;
+
+    @Autowired
+    private ListingCache listingCache;
+
+    @Autowired
+    private InventoryManager inventoryManager;
+
     @Autowired
     private ApplicationContext context;
 
@@ -381,25 +463,66 @@ public class S3Shell implements ShellCommandHandler {
              abbrev="lp")
     public void listPaths(@Param(name = "path",
             description = "will use this value passed to find child paths.")final String path) {
+        if(CommandFlags.isFlags(path)) {
+            listPaths(path, "");
+        } else {
+            listPaths(null, path);
+        }
+    }
 
-        final String pwd = presentWorkingDirectory;
+    @Command(description = "List the paths based on the entry using flags; -f lists the bucket again instead of " +
+                           "using a listing cached within listing.cacheTtl seconds.",
+             abbrev="lp")
+    public void listPaths(@Param(name = "flags", description = "-f to force a fresh listing")final String flags,
+                          @Param(name = "path",
+                                 description = "will use this value passed to find child paths.")final String path) {
 
         if (s3client != null) {
 
-            ListObjectsRequest listObjectRequest = new ListObjectsRequest();
-
-            listObjectRequest.withBucketName(selectedBucket.getBucketName()).withPrefix(path).withDelimiter("/");
+            CommandFlags commandFlags;
+            try {
+                commandFlags = CommandFlags.parse(flags);
+            } catch (IllegalArgumentException iae) {
+                System.out.println(iae.getMessage());
+                return;
+            }
 
-            final ObjectListing listing = s3client.listObjects(listObjectRequest);
-            final List<String> prefixes = listing.getCommonPrefixes();
-            for(String prefix : prefixes) {
-                System.out.println(prefix);
+            String alias = selectedBucket.getAlias();
+            List<String> prefixes = commandFlags.has('f') ? null : listingCache.getPrefixes(alias, path, "/");
+            if(prefixes == null) {
+                ListObjectsV2Request listObjectRequest = new ListObjectsV2Request();
+
+                listObjectRequest.withBucketName(selectedBucket.getBucketName()).withPrefix(path).withDelimiter("/");
+
+                long token = listingCache.startListing();
+                prefixes = new ArrayList<>();
+                try(ListingPaginator pages = newPaginator(listObjectRequest)) {
+                    ListObjectsV2Result page;
+                    while((page = pages.nextPage()) != null) {
+                        for(String prefix : page.getCommonPrefixes()) {
+                            System.out.println(prefix);
+                        }
+                        prefixes.addAll(page.getCommonPrefixes());
+                    }
+                }
+                listingCache.putPrefixes(alias, path, "/", prefixes, token);
+            } else {
+                for(String prefix : prefixes) {
+                    System.out.println(prefix);
+                }
             }
             System.out.println("found " + prefixes.size() + " prefixes");
 
         }
     }
 
+    /**
+     * @return a paginator over {@code request} that prefetches listing.prefetch pages.
+     */
+    private ListingPaginator newPaginator(ListObjectsV2Request request) {
+        return new ListingPaginator(s3client, request, transferSettings.getListingPrefetch());
+    }
+
     @Command(description = "Use the bucket alias that the user passes in.")
     public String changeBucket(@Param(name = "bucketAlias",
             description = "sets the current bucket to the one associated with the passed in alias.")String bucketAlias) {
@@ -409,8 +532,7 @@ public class S3Shell implements ShellCommandHandler {
 
         selectedBucket = buckets.get(bucketAlias);
         if(selectedBucket != null) {
-            AWSCredentials awsCredentials = new BasicAWSCredentials(selectedBucket.getAccessKey(), selectedBucket.getSecretKey());
-            s3client = new AmazonS3Client(awsCredentials, new ClientConfiguration());
+            s3client = newClient(selectedBucket);
             presentWorkingDirectory = "/";
             sb.append("Current bucket is now " + selectedBucket.getAlias());
         } else {
@@ -420,33 +542,129 @@ public class S3Shell implements ShellCommandHandler {
         return sb.toString();
     }
 
+    private static AmazonS3Client newClient(Bucket bucket) {
+
+        AWSCredentials awsCredentials = new BasicAWSCredentials(bucket.getAccessKey(), bucket.getSecretKey());
+        return new AmazonS3Client(awsCredentials,
+                                  new ClientConfiguration().withMaxConnections(TransferSettings.MAX_CONNECTIONS));
+    }
+
     @Command(description = "For the bucket that the user selected, list the path that is passed in",
              abbrev="ls")
     public void list(@Param(name = "path",
                             description = "For the specified bucket, list the path passed in")String path) {
-        if(s3client != null) {
+        if(CommandFlags.isFlags(path)) {
+            list(path, "");
+        } else {
+            list(null, path);
+        }
+    }
+
+    @Command(description = "List the path using flags; --parallel=N lists N key ranges of the path at once, " +
+                           "-u prints them as they arrive instead of in key order, -c reads the local catalog " +
+                           "and -i a loaded inventory instead of the bucket, -f lists the bucket again instead of using a cached listing. " +
+                           "Listings are always recursive, -R is accepted for familiarity.",
+             abbrev="ls")
+    public void list(@Param(name = "flags",
+                            description = "Flags for the listing, e.g. -c, --parallel=8 or \"--parallel=16 -u\"")String flags,
+                     @Param(name = "path",
+                            description = "For the specified bucket, list the path passed in")String path) {
+        CommandFlags commandFlags;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+        }
+        if(canList(commandFlags)) {
             if(path == null || path.length() ==0) {
                 path = presentWorkingDirectory;
             }
-            if(path != null && path.equals("/")) {
+            if(path == null || path.equals("/")) {
                 path = "";
             }
 
-            int totalFileCount = 0;
-
-            ObjectListing listing = s3client.listObjects(selectedBucket.getBucketName(), path);
-            List<S3ObjectSummary> summaries = listing.getObjectSummaries();
-            while(summaries.size() > 0) {
-                totalFileCount = totalFileCount + summaries.size();
-                for(S3ObjectSummary summary : summaries) {
-                    System.out.println(summary.getLastModified().toString() + " - "+ FileUtils.byteCountToDisplaySize(summary.getSize())+ " - " + summary.getKey().replaceAll("_\\$folder\\$", "/"));
+            ListingRenderer renderer = new ListingRenderer(System.out);
+            try(ObjectPages pages = openPages(path, commandFlags)) {
+                List<S3ObjectSummary> page;
+                while((page = pages.nextSummaries()) != null) {
+                    renderer.renderPage(page);
                 }
-                listing = s3client.listNextBatchOfObjects(listing);
-                summaries = listing.getObjectSummaries();
+            } catch (IOException ioe) {
+                logger.error(ioe.getMessage(), ioe);
+            } catch (IllegalArgumentException iae) {
+                System.out.println(iae.getMessage());
+                return;
+            }
+
+            System.out.println("Items found: " + renderer.getCount() + " in " +
+                               String.format("%.1f", renderer.getElapsedSeconds()) + "s (" +
+                               renderer.getKeysPerSecond() + " keys/s)");
+        }
+    }
+
+    /**
+     * @return the pages under {@code prefix}, read from a loaded inventory with -i, from the catalog with -c or
+     *         from the listing cache unless -f is given, otherwise listed by a {@link ShardedLister} when --parallel is given and by a prefetching
+     *         paginator. Listings in key order are added to the listing cache.
+     * @throws IllegalArgumentException if --parallel is not a positive number or -c is given without a catalog.
+     */
+    private ObjectPages openPages(String prefix, CommandFlags commandFlags) throws IOException {
+        return openPages(prefix, commandFlags, !commandFlags.has('u'));
+    }
+
+    /**
+     * @return true if a bucket is selected or the command reads a loaded inventory, which needs no bucket.
+     */
+    private boolean canList(CommandFlags commandFlags) {
+        return s3client != null || commandFlags.has('i');
+    }
+
+    /**
+     * @param ordered - false if the caller does not need the keys in key order, which lets a parallel listing
+     *                  deliver pages as they arrive.
+     */
+    private ObjectPages openPages(String prefix, CommandFlags commandFlags, boolean ordered) throws IOException {
+
+        if(commandFlags.has('i')) {
+            Inventory inventory = inventoryManager.get(selectedBucket == null ? null : selectedBucket.getBucketName());
+            if(inventory == null) {
+                throw new IllegalArgumentException("no inventory loaded for " +
+                                                   (selectedBucket == null ? "any bucket"
+                                                                           : selectedBucket.getBucketName()) +
+                                                   "; use inventory load manifest.json");
+            }
+            return inventory.pages(prefix);
+        }
+
+        if(commandFlags.has('c')) {
+            Catalog catalog = catalogManager.find(selectedBucket.getAlias(), selectedBucket.getBucketName());
+            if(catalog == null) {
+                throw new IllegalArgumentException("no catalog for " + selectedBucket.getAlias() +
+                                                   "; create it with catalog refresh");
             }
+            return catalog.pages(prefix);
+        }
 
-            System.out.println("Items found: " + totalFileCount);
+        int parallel = commandFlags.getInt("parallel", 'p', 1);
+        if(parallel < 1) {
+            throw new IllegalArgumentException("--parallel must be at least 1");
         }
+        String alias = selectedBucket.getAlias();
+        if(!commandFlags.has('f')) {
+            ObjectPages cached = listingCache.getObjects(alias, prefix);
+            if(cached != null) {
+                return cached;
+            }
+        }
+        if(parallel > 1) {
+            ShardedLister lister = new ShardedLister(s3client, selectedBucket.getBucketName(), prefix, parallel,
+                                                     ordered);
+            return ordered ? listingCache.recordObjects(alias, prefix, lister) : lister;
+        }
+        return listingCache.recordObjects(alias, prefix,
+                                          newPaginator(new ListObjectsV2Request().withBucketName(selectedBucket.getBucketName())
+                                                                                 .withPrefix(prefix)));
     }
 
     @Command(description="A command for searching your current path for files using regex",
@@ -454,45 +672,416 @@ public class S3Shell implements ShellCommandHandler {
     public void find(@Param(name="regexPattern",
                             description="The regex pattern to apply to the file names in the current path")
                      String regexPattern) {
+        find(null, regexPattern);
+    }
 
-        Pattern pattern = Pattern.compile(regexPattern);
+    @Command(description="Search the current path using flags; --parallel=N lists N key ranges of the path at " +
+                         "once, -u prints matches as they arrive instead of in key order, -c searches the local " +
+                         "catalog and -i a loaded inventory instead of the bucket, -f lists the bucket again instead of using a cached " +
+                         "listing.",
+             abbrev = "f")
+    public void find(@Param(name="flags",
+                            description="Flags for the search, e.g. -c, --parallel=8 or \"--parallel=16 -u\"")
+                     String flags,
+                     @Param(name="regexPattern",
+                            description="The regex pattern to apply to the file names in the current path")
+                     String regexPattern) {
+
+        CommandFlags commandFlags;
+        Pattern pattern;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            pattern = Pattern.compile(regexPattern);
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+        }
 
         String path =null;
 
-        if(s3client != null) {
+        if(canList(commandFlags)) {
             if(path == null || path.length() == 0) {
                 path = presentWorkingDirectory;
             }
-            if(path != null && path.equals("/")) {
+            if(path == null || path.equals("/")) {
                 path = "";
             }
 
-            long matchCount = 0;
+            // a pattern anchored at the start of the key only needs the keys below its literal prefix
+            String literalPrefix = PatternPrefix.literalPrefix(pattern);
+            if(literalPrefix.startsWith(path)) {
+                path = literalPrefix;
+            } else if(!path.startsWith(literalPrefix)) {
+                System.out.println("Listed 0 of 0 files; the pattern cannot match keys below " + path);
+                return;
+            }
 
-            boolean continueListingData = true;
+            long totalFiles = 0;
 
-            ObjectListing listing = s3client.listObjects(selectedBucket.getBucketName(), path);
+            ListingRenderer renderer = new ListingRenderer(System.out);
+            try(ObjectPages pages = openPages(path, commandFlags);
+                PageMatcher matcher = new PageMatcher(pattern, renderer, Runtime.getRuntime().availableProcessors())) {
+                List<S3ObjectSummary> page;
+                while((page = pages.nextSummaries()) != null) {
+                    matcher.accept(page);
+                    totalFiles = totalFiles + page.size();
+                }
+                matcher.finish();
+            } catch (IOException ioe) {
+                logger.error(ioe.getMessage(), ioe);
+            } catch (IllegalArgumentException iae) {
+                System.out.println(iae.getMessage());
+                return;
+            }
+            System.out.println("Listed " + renderer.getCount() + " of " + totalFiles + " files");
+        }
+    }
+
+    @Command(description = "Show the local catalog of the current bucket, which ls -c and find -c read instead of " +
+                           "listing the bucket.")
+    public String catalog() {
+
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+        Catalog catalog = findCatalog();
+        if(catalog == null) {
+            return "no catalog for " + selectedBucket.getAlias() + "; create it with catalog refresh";
+        }
+        return "catalog of " + selectedBucket.getAlias() + ": " + catalog.getIndexedCount() + " objects, refreshed " +
+               new Date(catalog.getRefreshed()) + ", " + catalog.getChangeCount() + " changes from put and rm since, " +
+               FileUtils.byteCountToDisplaySize(catalog.getIndexFile().length()) + " in " + catalog.getIndexFile();
+    }
 
-            long totalFiles = listing.getObjectSummaries().size();
+    @Command(description = "Manage the local catalog of the current bucket; refresh lists the bucket into it, size " +
+                           "counts the objects it holds and drop removes it.")
+    public String catalog(@Param(name = "action", description = "refresh, size or drop") String action) {
+        return catalog(action, "");
+    }
 
-            do {
-                listing = s3client.listNextBatchOfObjects(listing);
-                for(S3ObjectSummary summary : listing.getObjectSummaries()) {
-                    Matcher matcher = pattern.matcher(summary.getKey());
-                    while(matcher.find()) {
-                        System.out.println(summary.getLastModified().toString() + " - "+ FileUtils.byteCountToDisplaySize(summary.getSize())+ " - " + summary.getKey().replaceAll("_\\$folder\\$", "/"));
-                        matchCount++;
+    @Command(description = "Manage the local catalog of the current bucket for a prefix; refresh lists only the " +
+                           "prefix and keeps the rest of the catalog, size counts the objects below the prefix.")
+    public String catalog(@Param(name = "action", description = "refresh, size or drop") String action,
+                          @Param(name = "prefix", description = "The prefix to refresh or count") String prefix) {
+
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+        if(prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        try {
+            Catalog catalog = catalogManager.get(selectedBucket.getAlias(), selectedBucket.getBucketName());
+            switch(action) {
+                case "refresh":
+                    long start = System.nanoTime();
+                    int listed;
+                    try(ObjectPages pages = openPages(prefix, CommandFlags.parse("-f"))) {
+                        listed = catalog.refresh(prefix, pages);
                     }
-                }
+                    return "cataloged " + listed + " objects under '" + prefix + "' in " +
+                           String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s; the catalog holds " +
+                           catalog.getIndexedCount() + " objects";
+                case "size":
+                    if(!catalog.exists()) {
+                        return "no catalog for " + selectedBucket.getAlias() + "; create it with catalog refresh";
+                    }
+                    long[] totals = catalog.summarize(prefix);
+                    return totals[0] + " objects, " + FileUtils.byteCountToDisplaySize(totals[1]) + " under '" +
+                           prefix + "'";
+                case "drop":
+                    catalog.drop();
+                    return "removed the catalog of " + selectedBucket.getAlias();
+                default:
+                    return "unknown catalog action " + action + "; use refresh, size or drop";
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error(e.getMessage(), e);
+            return "catalog " + action + " failed with error: " + e.getMessage();
+        }
+    }
 
-                totalFiles = totalFiles + listing.getObjectSummaries().size();
+    @Command(description = "Show the number of objects and bytes below the current path and each of its " +
+                           "sub-prefixes.",
+             abbrev = "du")
+    public void diskUsage() {
+        diskUsage(null, "");
+    }
+
+    @Command(description = "Show the number of objects and bytes below the path and each of its sub-prefixes.",
+             abbrev = "du")
+    public void diskUsage(@Param(name = "path", description = "The prefix to add up") String path) {
+        if(CommandFlags.isFlags(path)) {
+            diskUsage(path, "");
+        } else {
+            diskUsage(null, path);
+        }
+    }
+
+    @Command(description = "Show the number of objects and bytes below the path and its sub-prefixes down to a " +
+                           "depth, e.g. du -d 2 logs/",
+             abbrev = "du")
+    public void diskUsage(@Param(name = "flag", description = "-d") String flag,
+                          @Param(name = "depth", description = "The number of levels of sub-prefixes to show")
+                          Integer depth,
+                          @Param(name = "path", description = "The prefix to add up") String path) {
+        diskUsage(flag + " " + depth, path);
+    }
+
+    @Command(description = "Show the number of objects and bytes below the path using flags; -d N shows N levels " +
+                           "of sub-prefixes (1 by default), --parallel=N lists N key ranges at once, -c adds up " +
+                           "the local catalog and -i a loaded inventory instead of listing the bucket.",
+             abbrev = "du")
+    public void diskUsage(@Param(name = "flags", description = "Flags, e.g. -d2, -c or \"-d 3 --parallel=16\"")
+                          String flags,
+                          @Param(name = "path", description = "The prefix to add up") String path) {
+
+        CommandFlags commandFlags;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+        }
+        if(!canList(commandFlags)) {
+            System.out.println("no bucket selected; use changeBucket(cb)");
+            return;
+        }
+        if(path == null || path.length() == 0) {
+            path = presentWorkingDirectory == null ? "" : presentWorkingDirectory;
+        }
+        if(path.startsWith("/")) {
+            path = path.substring(1);
+        }
 
-                if(listing.getObjectSummaries().size() < 1000) {
-                    continueListingData = false;
+        long start = System.nanoTime();
+        DiskUsage usage;
+        try {
+            int depth = commandFlags.getInt("depth", 'd', 1);
+            if(depth < 0) {
+                throw new IllegalArgumentException("the depth cannot be negative");
+            }
+            usage = new DiskUsage(path, depth);
+            try(ObjectPages pages = openPages(path, commandFlags, false)) {
+                List<S3ObjectSummary> page;
+                while((page = pages.nextSummaries()) != null) {
+                    usage.add(page);
                 }
-            }while(continueListingData);
-            System.out.println("Listed " + matchCount + " of " + totalFiles + " files");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error(e.getMessage(), e);
+            System.out.println("du failed with error: " + e.getMessage());
+            return;
+        }
+        usage.print(System.out);
+        System.out.println("Counted " + usage.getObjectCount() + " objects in " + usage.getPrefixCount() +
+                           " prefixes in " + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s");
+    }
+
+    @Command(description = "Show the prefixes below the current path as a tree.")
+    public void tree() {
+        tree(null, "");
+    }
+
+    @Command(description = "Show the prefixes below the path as a tree.")
+    public void tree(@Param(name = "path", description = "The prefix to start from") String path) {
+        if(CommandFlags.isFlags(path)) {
+            tree(path, "");
+        } else {
+            tree(null, path);
+        }
+    }
+
+    @Command(description = "Show the prefixes below the path as a tree down to a depth, e.g. tree -L 2 logs/")
+    public void tree(@Param(name = "flag", description = "-L") String flag,
+                     @Param(name = "depth", description = "The number of levels to show") Integer depth,
+                     @Param(name = "path", description = "The prefix to start from") String path) {
+        tree(flag + " " + depth, path);
+    }
+
+    @Command(description = "Show the prefixes below the path as a tree using flags; -L N shows N levels and " +
+                           "--parallel=N lists up to N prefixes at once (8 by default, at most " +
+                           MAX_TREE_CONCURRENCY + ").")
+    public void tree(@Param(name = "flags", description = "Flags, e.g. -L2 or \"-L 3 --parallel=16\"") String flags,
+                     @Param(name = "path", description = "The prefix to start from") String path) {
+
+        if(s3client == null) {
+            System.out.println("no bucket selected; use changeBucket(cb)");
+            return;
+        }
+        if(path == null || path.length() == 0) {
+            path = presentWorkingDirectory;
+        }
+        if(path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if(path.length() > 0 && !path.endsWith("/")) {
+            path = path + "/";
+        }
+
+        long start = System.nanoTime();
+        PrefixTree tree;
+        try {
+            CommandFlags commandFlags = CommandFlags.parse(flags);
+            int depth = commandFlags.getInt("level", 'L', Integer.MAX_VALUE);
+            int concurrency = commandFlags.getInt("parallel", 'p', 8);
+            if(depth < 1 || concurrency < 1 || concurrency > MAX_TREE_CONCURRENCY) {
+                throw new IllegalArgumentException("-L must be at least 1 and --parallel between 1 and " +
+                                                   MAX_TREE_CONCURRENCY);
+            }
+            tree = new PrefixTree(s3client, selectedBucket.getBucketName(), depth, concurrency);
+            tree.print(path, System.out);
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+            System.out.println("tree failed with error: " + e.getMessage());
+            return;
+        }
+        System.out.println(tree.getPrefixCount() + " prefixes, " + tree.getObjectCount() + " objects, " +
+                           FileUtils.byteCountToDisplaySize(tree.getTotalBytes()) + " found with " +
+                           tree.getRequestCount() + " requests in " +
+                           String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s");
+    }
+
+    @Command(description = "Show the S3 Inventory reports loaded in this session.")
+    public String inventory() {
+
+        StringBuilder sb = new StringBuilder();
+        for(Inventory inventory : inventoryManager.getInventories()) {
+            sb.append(inventory.getBucketName()).append(": ").append(inventory.getKeys().size())
+              .append(" objects from ").append(inventory.getManifest());
+            if(inventory.getCreated() > 0) {
+                sb.append(", created ").append(new Date(inventory.getCreated()));
+            }
+            sb.append(", ").append(FileUtils.byteCountToDisplaySize(inventory.getKeys().getMemoryBytes()))
+              .append(" in memory\n");
+        }
+        return sb.length() == 0 ? "no inventory loaded; use inventory load manifest.json" : sb.toString();
+    }
+
+    @Command(description = "Forget the loaded S3 Inventory reports, e.g. inventory clear")
+    public String inventory(@Param(name = "action", description = "clear") String action) {
+
+        if(!"clear".equals(action)) {
+            return "unknown inventory action " + action + "; use load or clear";
+        }
+        inventoryManager.clear();
+        return "cleared the loaded inventories";
+    }
+
+    @Command(description = "Load a downloaded S3 Inventory report so that ls, find and du can read it with -i " +
+                           "instead of listing the bucket, e.g. inventory load /data/inventory/manifest.json. " +
+                           "The CSV data files are looked for next to the manifest.")
+    public String inventory(@Param(name = "action", description = "load") String action,
+                            @Param(name = "manifest", description = "The local manifest.json of the report")
+                            String manifest) {
+
+        if(!"load".equals(action)) {
+            return "unknown inventory action " + action + "; use load or clear";
+        }
+        long start = System.nanoTime();
+        try {
+            Inventory inventory = new InventoryLoader(Runtime.getRuntime().availableProcessors(), System.out)
+                    .load(new File(manifest));
+            inventoryManager.add(inventory);
+            return "loaded " + inventory.getKeys().size() + " objects of " + inventory.getBucketName() + " in " +
+                   String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s";
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error(e.getMessage(), e);
+            return "failed to load the inventory " + manifest + " with error: " + e.getMessage();
+        }
+    }
+
+    @Command(description = "Show the metadata of an object: its content type, storage class, encryption, user " +
+                           "metadata and every other header.")
+    public void stat(@Param(name = "path",
+                            description = "The key of the object")String path) {
+        if(CommandFlags.isFlags(path)) {
+            stat(path, "");
+        } else {
+            stat(null, path);
+        }
+    }
+
+    @Command(description = "Show object metadata using flags; -r fetches the metadata of every object under the path " +
+                           "with concurrent HEAD requests and writes a row per object, --json writes JSON lines " +
+                           "instead and --concurrency=N sets the number of HEADs in flight (stat.concurrency by " +
+                           "default, at most " + TransferSettings.MAX_CONNECTIONS + "). The listing accepts the " +
+                           "flags of ls, e.g. -c or --parallel=8.")
+    public void stat(@Param(name = "flags",
+                            description = "Flags for stat, e.g. -r, \"-r --json\" or \"-r --concurrency=128\"")
+                     String flags,
+                     @Param(name = "path",
+                            description = "The key, or the prefix with -r")
+                     String path) {
+
+        CommandFlags commandFlags;
+        int concurrency;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            concurrency = commandFlags.getInt("concurrency", transferSettings.getStatConcurrency());
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+            return;
+        }
+        if(concurrency < 1 || concurrency > TransferSettings.MAX_CONNECTIONS) {
+            System.out.println("--concurrency must be between 1 and " + TransferSettings.MAX_CONNECTIONS);
+            return;
+        }
+        if(s3client == null) {
+            System.out.println("no bucket selected; use changeBucket(cb)");
+            return;
+        }
+        if(path == null || path.length() == 0) {
+            path = presentWorkingDirectory;
+        }
+        if(path == null || path.equals("/")) {
+            path = "";
+        }
+        if(path.startsWith("/")) {
+            path = path.substring(1);
         }
+
+        Gson json = commandFlags.has("json") ? gson : null;
+        try(MetadataScanner scanner = new MetadataScanner(s3client, selectedBucket.getBucketName(), concurrency, json,
+                                                          System.out)) {
+            if(!commandFlags.has('r')) {
+                System.out.println(scanner.describe(path));
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            try(ObjectPages pages = openPages(path, commandFlags)) {
+                scanner.scan(pages);
+            }
+            if(json == null) {
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                System.out.println("Objects: " + scanner.getCount() + " in " + elapsed / 1000.0 + "s (" +
+                                   scanner.getCount() * 1000 / elapsed + " HEADs/s)" +
+                                   (scanner.getFailed() > 0 ? "; " + scanner.getFailed() + " failed" : ""));
+            }
+        } catch (AmazonClientException ace) {
+            System.out.println("unable to stat " + path + ": " + ace.getMessage());
+        } catch (IllegalArgumentException iae) {
+            System.out.println(iae.getMessage());
+        } catch (IOException | InterruptedException e) {
+            logger.error(e.getMessage(), e);
+            System.out.println("stat of " + path + " stopped with error: " + e.getMessage());
+        }
+    }
+
+    @Command(description = "Show the hit and miss counts and the size of the listing cache used by ls, lp and find.")
+    public String cache() {
+        return listingCache.describe();
+    }
+
+    @Command(description = "Empty the listing cache used by ls, lp and find, e.g. cache clear")
+    public String cache(@Param(name = "action", description = "clear") String action) {
+
+        if(!"clear".equals(action)) {
+            return "unknown cache action " + action + "; use clear";
+        }
+        listingCache.clear();
+        return "cleared the listing cache";
     }
 
     @Command(description = "For the bucket that the user selected, list the path that would be listed in pwd",
@@ -581,6 +1170,12 @@ public class S3Shell implements ShellCommandHandler {
                                        " is appended to the localFile path")
                                String localPath) {
 
+        return downloadFile(remotePath, localPath, bandwidthGovernor.newThrottle(null), false);
+    }
+
+    private String downloadFile(final String remotePath, final String localPath, final Throttle throttle,
+                                boolean background) {
+
         ObjectListing listing = s3client.listObjects(selectedBucket.getBucketName(), remotePath);
 
         if(listing.getObjectSummaries() != null && listing.getObjectSummaries().size() > 1) {
@@ -590,42 +1185,499 @@ public class S3Shell implements ShellCommandHandler {
             return "Remote path " + remotePath + " returns zero files.";
         }
 
-        S3ObjectSummary summary = listing.getObjectSummaries().get(0);
+        final S3ObjectSummary summary = listing.getObjectSummaries().get(0);
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
 
-        S3Object s3object = s3client.getObject(new GetObjectRequest(selectedBucket.getBucketName(), summary.getKey()));
-
-        InputStream is = s3object.getObjectContent();
-        long contentLength = s3object.getObjectMetadata().getContentLength();
-        boolean success = false;
+        if(background) {
+            return startJob("get " + remotePath + " " + localPath, summary.getSize(), throttle,
+                            out -> downloadObject(client, bucketName, summary, remotePath, localPath, throttle, out, null));
+        }
         try {
-            success = downloadProgress.readFile(is, localPath, contentLength, 1024, 64, System.out);
+            return downloadObject(client, bucketName, summary, remotePath, localPath, throttle, System.out, System.out);
         } catch (Exception e) {
             logger.error(e.getMessage(),e);
             return "failed to get the remote file " + remotePath + " with error: " + e.getMessage();
         }
+    }
+
+    private String downloadObject(AmazonS3Client client, String bucketName, S3ObjectSummary summary, String remotePath,
+                                  String localPath, Throttle throttle, PrintStream out, PrintStream progressOut)
+            throws Exception {
 
+        boolean success = downloadEngine.download(client, bucketName, summary, localPath, out, progressOut, throttle);
         return (success == true ? "Successfully":"Unsuccessfully") + " downloaded remote file " + remotePath;
     }
 
-    @Command(description = "Remove the specified file from current bucket",
+    @Command(description = "Retrieve files using flags; -r downloads every object under remotePath into the " +
+                           "localPath directory, mirroring the key hierarchy, -b runs the download as a background job " +
+                           "and --dry-run with -r only reports the objects, bytes and requests it would take.",
+             abbrev = "get")
+    public String downloadFile(@Param(name="flags",
+                                      description="Flags for the download, e.g. -r for a recursive download, -b for " +
+                                                  "a background job or --limit=50MB/s to cap its bandwidth")
+                               String flags,
+                               @Param(name="remotePath",
+                                      description="The path or prefix on the current bucket you want to retrieve")
+                               String remotePath,
+                               @Param(name="localPath",
+                                      description="The local file, or the local directory for a recursive download")
+                               String localPath) {
+
+        final CommandFlags commandFlags;
+        final Throttle throttle;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            throttle = bandwidthGovernor.newThrottle(commandFlags.get("limit", null));
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+        if(commandFlags.has("dry-run") && !commandFlags.has('r')) {
+            return DRY_RUN_NEEDS_RECURSION;
+        }
+        if(!commandFlags.has('r')) {
+            return downloadFile(remotePath, localPath, throttle, commandFlags.has('b'));
+        }
+
+        final File localDirectory = new File(localPath);
+        if(localDirectory.exists() && !localDirectory.isDirectory()) {
+            return localPath + " is not a directory";
+        }
+        final String prefix = remotePath.startsWith("/") ? remotePath.substring(1) : remotePath;
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
+        if(commandFlags.has("dry-run")) {
+            return dryRun("get -r " + remotePath + " " + localPath,
+                          () -> transferPlanner.planGet(newPaginator(new ListObjectsV2Request().withBucketName(bucketName)
+                                                                                               .withPrefix(prefix))));
+        }
+        if(commandFlags.has('b')) {
+            return startJob("get -r " + remotePath + " " + localPath, -1, throttle,
+                            out -> downloadEngine.downloadPrefix(client, bucketName, prefix, localDirectory, out, throttle));
+        }
+        try {
+            return downloadEngine.downloadPrefix(client, bucketName, prefix, localDirectory, System.out, throttle);
+        } catch (Exception e) {
+            logger.error(e.getMessage(),e);
+            return "failed to get the remote path " + remotePath + " with error: " + e.getMessage();
+        }
+    }
+
+    @Command(description = "Remove the specified file from current bucket; a path ending in * removes every object " +
+                           "whose key starts with the rest of the path.",
              abbrev="rm")
     public String deleteFile(@Param(name = "filePath",
                                     description="The path on the bucket to delete.")String filePath) {
+        return deleteFile(null, filePath);
+    }
 
-        StringBuilder sb = new StringBuilder();
-        if(filePath != null && filePath.endsWith("*")) {
-            String basePath = filePath.substring(0, filePath.lastIndexOf("*")-1);
-            ObjectListing listing = s3client.listObjects(selectedBucket.getBucketName(), basePath);
-            for(S3ObjectSummary summary : listing.getObjectSummaries()) {
-                s3client.deleteObject(selectedBucket.getBucketName(), summary.getKey());
-                sb.append("Deleted " + selectedBucket.getBucketName() + "://" + summary.getKey()).append("\n");
+    @Command(description = "Remove objects using flags; -r removes every object under the path, --parallel=N lists " +
+                           "N key ranges of it at once, -b runs the removal as a background job and --dry-run only " +
+                           "reports what would be removed. Objects are removed 1000 keys per request.",
+             abbrev="rm")
+    public String deleteFile(@Param(name = "flags",
+                                    description = "Flags for the removal, e.g. -r, \"-r --parallel=8\" or \"-r -b\"")
+                             String flags,
+                             @Param(name = "filePath",
+                                    description="The path on the bucket to delete.")String filePath) {
+
+        final CommandFlags commandFlags;
+        final int parallel;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            parallel = commandFlags.getInt("parallel", 'p', 1);
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        if(parallel < 1) {
+            return "--parallel must be at least 1";
+        }
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+        if(filePath.startsWith("/")) {
+            filePath = filePath.substring(1);
+        }
+
+        Catalog catalog = findCatalog();
+        final String prefix;
+        if(commandFlags.has('r')) {
+            if(filePath.length() == 0) {
+                return "refusing to remove every object in the bucket; use rm \"*\" if that is what you want";
             }
+            prefix = filePath.endsWith("/") ? filePath : filePath + "/";
+        } else if(filePath.endsWith("*")) {
+            prefix = filePath.substring(0, filePath.length() - 1);
+        } else if(commandFlags.has("dry-run")) {
+            return "dry run of rm " + filePath + "; nothing was changed\nrequests: 1\n  DeleteObject 1";
         } else {
-            s3client.deleteObject(selectedBucket.getBucketName(), filePath);
-            sb.append("deleted " + filePath + "\n");
+            try {
+                s3client.deleteObject(selectedBucket.getBucketName(), filePath);
+            } finally {
+                listingCache.invalidate(selectedBucket.getAlias(), filePath);
+            }
+            uncatalog(catalog, Collections.singletonList(filePath));
+            return "deleted " + filePath;
         }
 
-        return sb.toString();
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
+        // always list the bucket itself; a cached listing, catalog or inventory may be missing newer keys
+        final Callable<ObjectPages> listing = () -> parallel > 1
+                ? new ShardedLister(client, bucketName, prefix, parallel, false)
+                : new ListingPaginator(client, new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix),
+                                       transferSettings.getListingPrefetch());
+        if(commandFlags.has("dry-run")) {
+            return dryRun("rm " + (flags == null ? "" : flags + " ") + filePath,
+                          () -> transferPlanner.planDelete(listing.call()));
+        }
+        final JobManager.Task task = invalidating(selectedBucket.getAlias(), prefix,
+                                                  out -> deleteEngine.delete(client, bucketName, listing.call(),
+                                                                             keys -> uncatalog(catalog, keys), out));
+        if(commandFlags.has('b')) {
+            return startJob("rm " + (flags == null ? "" : flags + " ") + filePath, -1,
+                            bandwidthGovernor.newThrottle(null), task);
+        }
+        try {
+            return task.run(System.out);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "failed to remove " + filePath + " with error: " + e.getMessage();
+        }
+    }
+
+    private void catalog(Catalog catalog, CatalogEntry entry) {
+
+        if(catalog != null) {
+            try {
+                catalog.put(entry);
+            } catch (IOException ioe) {
+                logger.error("unable to add " + entry.getKey() + " to the catalog", ioe);
+            }
+        }
+    }
+
+    private void uncatalog(Catalog catalog, List<String> keys) {
+
+        if(catalog != null) {
+            try {
+                catalog.remove(keys);
+            } catch (IOException ioe) {
+                logger.error("unable to remove " + keys.size() + " keys from the catalog", ioe);
+            }
+        }
+    }
+
+    @Command(description = "Copy an object inside S3 without downloading it. Either path may be written as " +
+                           "alias:key to name another bucket alias; a destination ending in / keeps the source's " +
+                           "name.",
+             abbrev = "cp")
+    public String copyObject(@Param(name = "source",
+                                    description = "The key to copy, e.g. reports/2017.csv or archive:reports/2017.csv")
+                             String source,
+                             @Param(name = "destination",
+                                    description = "The key or alias:key to copy to")
+                             String destination) {
+        return copyObject(null, source, destination);
+    }
+
+    @Command(description = "Copy objects inside S3 using flags; -r copies every object under the source to the " +
+                           "same relative key under the destination, -b runs the copy as a background job and " +
+                           "--dry-run with -r only reports what would be copied.",
+             abbrev = "cp")
+    public String copyObject(@Param(name = "flags",
+                                    description = "Flags for the copy, e.g. -r for a prefix or \"-r -b\"")
+                             String flags,
+                             @Param(name = "source",
+                                    description = "The key or prefix to copy, optionally as alias:key")
+                             String source,
+                             @Param(name = "destination",
+                                    description = "The key or prefix to copy to, optionally as alias:key")
+                             String destination) {
+        return copyOrMove(flags, source, destination, false);
+    }
+
+    @Command(description = "Move an object inside S3 without downloading it by copying it and removing the " +
+                           "source. Either path may be written as alias:key to name another bucket alias.",
+             abbrev = "mv")
+    public String moveObject(@Param(name = "source",
+                                    description = "The key to move, e.g. reports/2017.csv or archive:reports/2017.csv")
+                             String source,
+                             @Param(name = "destination",
+                                    description = "The key or alias:key to move to")
+                             String destination) {
+        return moveObject(null, source, destination);
+    }
+
+    @Command(description = "Move objects inside S3 using flags; -r moves every object under the source to the " +
+                           "same relative key under the destination, -b runs the move as a background job and " +
+                           "--dry-run with -r only reports what would be moved.",
+             abbrev = "mv")
+    public String moveObject(@Param(name = "flags",
+                                    description = "Flags for the move, e.g. -r for a prefix or \"-r -b\"")
+                             String flags,
+                             @Param(name = "source",
+                                    description = "The key or prefix to move, optionally as alias:key")
+                             String source,
+                             @Param(name = "destination",
+                                    description = "The key or prefix to move to, optionally as alias:key")
+                             String destination) {
+        return copyOrMove(flags, source, destination, true);
+    }
+
+    private String copyOrMove(String flags, String source, String destination, final boolean move) {
+
+        final CommandFlags commandFlags;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        final Bucket sourceBucket = bucketFor(source);
+        final Bucket destinationBucket = bucketFor(destination);
+        if(sourceBucket == null || destinationBucket == null) {
+            return "no bucket selected; use changeBucket(cb) or write the path as alias:key";
+        }
+        final String sourceKey = keyFor(source);
+        String destinationKey = keyFor(destination);
+        final String sourceBucketName = sourceBucket.getBucketName();
+        final String destinationBucketName = destinationBucket.getBucketName();
+        final AmazonS3Client sourceClient = clientFor(sourceBucket);
+        // the copy is signed by the destination, which has to be able to read the source
+        final AmazonS3Client client = clientFor(destinationBucket);
+        final String command = (move ? "mv " : "cp ") + (flags == null ? "" : flags + " ") + source + " " + destination;
+
+        JobManager.Task task;
+        if(commandFlags.has('r')) {
+            final String sourcePrefix = sourceKey.length() == 0 || sourceKey.endsWith("/") ? sourceKey : sourceKey + "/";
+            final String destinationPrefix = destinationKey.length() == 0 || destinationKey.endsWith("/")
+                                             ? destinationKey : destinationKey + "/";
+            if(sourceBucketName.equals(destinationBucketName) && destinationPrefix.startsWith(sourcePrefix)) {
+                return "the destination " + destination + " is inside the source " + source;
+            }
+            if(commandFlags.has("dry-run")) {
+                return dryRun(command, () -> transferPlanner.planCopy(
+                        new ListingPaginator(sourceClient, new ListObjectsV2Request().withBucketName(sourceBucketName)
+                                                                                     .withPrefix(sourcePrefix),
+                                             transferSettings.getListingPrefetch()), move));
+            }
+            final Catalog sourceCatalog = move ? findCatalog(sourceBucket) : null;
+            final Catalog destinationCatalog = findCatalog(destinationBucket);
+            task = out -> copyEngine.copyPrefix(sourceClient, client, sourceBucketName, sourcePrefix,
+                                                destinationBucketName, destinationPrefix, move,
+                                                entry -> catalog(destinationCatalog, entry),
+                                                keys -> uncatalog(sourceCatalog, keys), out);
+            task = invalidating(destinationBucket.getAlias(), destinationPrefix, task);
+            if(move) {
+                task = invalidating(sourceBucket.getAlias(), sourcePrefix, task);
+            }
+        } else if(commandFlags.has("dry-run")) {
+            return DRY_RUN_NEEDS_RECURSION;
+        } else {
+            if(destinationKey.length() == 0 || destinationKey.endsWith("/")) {
+                destinationKey = destinationKey + sourceKey.substring(sourceKey.lastIndexOf('/') + 1);
+            }
+            if(sourceBucketName.equals(destinationBucketName) && sourceKey.equals(destinationKey)) {
+                return source + " and " + destination + " are the same object";
+            }
+            final String targetKey = destinationKey;
+            final Catalog sourceCatalog = move ? findCatalog(sourceBucket) : null;
+            final Catalog destinationCatalog = findCatalog(destinationBucket);
+            task = out -> {
+                ObjectMetadata metadata = client.getObjectMetadata(sourceBucketName, sourceKey);
+                String etag = copyEngine.copy(client, sourceBucketName, sourceKey, metadata.getContentLength(),
+                                              destinationBucketName, targetKey);
+                if(destinationCatalog != null) {
+                    destinationCatalog.put(new CatalogEntry(targetKey, metadata.getContentLength(),
+                                                            System.currentTimeMillis(), etag));
+                }
+                if(move) {
+                    sourceClient.deleteObject(sourceBucketName, sourceKey);
+                    uncatalog(sourceCatalog, Collections.singletonList(sourceKey));
+                }
+                return (move ? "Moved " : "Copied ") + sourceKey + " to " + targetKey;
+            };
+            task = invalidating(destinationBucket.getAlias(), targetKey, task);
+            if(move) {
+                task = invalidating(sourceBucket.getAlias(), sourceKey, task);
+            }
+        }
+
+        if(commandFlags.has('b')) {
+            return startJob(command, -1, bandwidthGovernor.newThrottle(null), task);
+        }
+        try {
+            return task.run(System.out);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "failed to " + (move ? "move " : "copy ") + source + " with error: " + e.getMessage();
+        }
+    }
+
+    @Command(description = "Apply an operation to every key listed in a manifest file, one key per line, e.g. " +
+                           "batch delete keys.txt. Completed keys are journaled under ~/.s3shell/batch, so running " +
+                           "an interrupted batch again resumes where it stopped.")
+    public String batch(@Param(name = "operation",
+                               description = "delete")
+                        String operation,
+                        @Param(name = "manifest",
+                               description = "The local file listing the keys on the current bucket")
+                        String manifest) {
+        return batch(null, operation, manifest, null);
+    }
+
+    @Command(description = "Apply an operation to every key listed in a manifest file; batch get keys.txt /tmp/out " +
+                           "downloads the keys below a local directory and batch copy keys.txt archive:restored/ " +
+                           "copies them under a prefix, optionally of another alias. Flags may come first, e.g. " +
+                           "batch -b delete keys.txt")
+    public String batch(@Param(name = "operation",
+                               description = "get, delete or copy")
+                        String operation,
+                        @Param(name = "manifest",
+                               description = "The local file listing the keys on the current bucket")
+                        String manifest,
+                        @Param(name = "target",
+                               description = "The local directory for get, the prefix or alias:prefix for copy")
+                        String target) {
+
+        if(CommandFlags.isFlags(operation)) {
+            return batch(operation, manifest, target, null);
+        }
+        return batch(null, operation, manifest, target);
+    }
+
+    @Command(description = "Apply an operation to every key listed in a manifest file using flags; -b runs the batch " +
+                           "as a background job and --limit=50MB/s caps the bandwidth of batch get.")
+    public String batch(@Param(name = "flags",
+                               description = "Flags for the batch, e.g. -b for a background job")
+                        String flags,
+                        @Param(name = "operation",
+                               description = "get, delete or copy")
+                        String operation,
+                        @Param(name = "manifest",
+                               description = "The local file listing the keys on the current bucket")
+                        String manifest,
+                        @Param(name = "target",
+                               description = "The local directory for get, the prefix or alias:prefix for copy")
+                        String target) {
+
+        final CommandFlags commandFlags;
+        final Throttle throttle;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            throttle = bandwidthGovernor.newThrottle(commandFlags.get("limit", null));
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+        final File manifestFile = new File(manifest);
+        if(!manifestFile.isFile()) {
+            return "manifest " + manifest + " does not exist";
+        }
+        if(target == null && !"delete".equals(operation)) {
+            return "batch " + operation + " needs a target, e.g. batch get keys.txt /tmp/restore or " +
+                   "batch copy keys.txt archive:restored/";
+        }
+
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
+        JobManager.Task task;
+        switch(operation) {
+            case "get":
+                final File localDirectory = new File(target);
+                if(localDirectory.exists() && !localDirectory.isDirectory()) {
+                    return target + " is not a directory";
+                }
+                task = out -> batchEngine.get(client, bucketName, manifestFile, localDirectory, out, throttle);
+                break;
+            case "delete":
+                if(target != null) {
+                    return "batch delete takes no target";
+                }
+                final Catalog catalog = findCatalog();
+                task = invalidating(selectedBucket.getAlias(), "",
+                                    out -> batchEngine.delete(client, bucketName, manifestFile,
+                                                              keys -> uncatalog(catalog, keys), out));
+                break;
+            case "copy":
+                final Bucket destinationBucket = bucketFor(target);
+                String key = keyFor(target);
+                final String prefix = key.length() == 0 || key.endsWith("/") ? key : key + "/";
+                if(destinationBucket.getBucketName().equals(bucketName) && prefix.length() == 0) {
+                    return "batch copy would copy the keys onto themselves; give a prefix or another alias";
+                }
+                final AmazonS3Client destinationClient = clientFor(destinationBucket);
+                final Catalog destinationCatalog = findCatalog(destinationBucket);
+                task = invalidating(destinationBucket.getAlias(), prefix,
+                                    out -> batchEngine.copy(destinationClient, bucketName, manifestFile,
+                                                            destinationBucket.getBucketName(), prefix,
+                                                            destinationCatalog == null ? null
+                                                                    : entry -> catalog(destinationCatalog, entry),
+                                                            out));
+                break;
+            default:
+                return "unknown batch operation " + operation + "; use get, delete or copy";
+        }
+
+        if(commandFlags.has('b')) {
+            return startJob("batch " + operation + " " + manifest + (target == null ? "" : " " + target), -1,
+                            throttle, task);
+        }
+        try {
+            return task.run(System.out);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "batch " + operation + " failed with error: " + e.getMessage();
+        }
+    }
+
+    /**
+     * @return the plan made by {@code planning}, which streams a listing without changing anything.
+     */
+    private String dryRun(String command, Callable<TransferPlan> planning) {
+
+        try {
+            return transferPlanner.describe(command, planning.call());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "failed to plan " + command + " with error: " + e.getMessage();
+        }
+    }
+
+    /**
+     * @return the bucket named by the alias in an alias:key path, otherwise the selected bucket.
+     */
+    private Bucket bucketFor(String path) {
+
+        int colon = path.indexOf(':');
+        if(colon > 0 && buckets.containsKey(path.substring(0, colon))) {
+            return buckets.get(path.substring(0, colon));
+        }
+        return selectedBucket;
+    }
+
+    /**
+     * @return the key of a key, /key or alias:key path.
+     */
+    private String keyFor(String path) {
+
+        int colon = path.indexOf(':');
+        if(colon > 0 && buckets.containsKey(path.substring(0, colon))) {
+            path = path.substring(colon + 1);
+        }
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * @return the client of the selected bucket, or a new client for another alias.
+     */
+    private AmazonS3Client clientFor(Bucket bucket) {
+        return bucket == selectedBucket ? s3client : newClient(bucket);
     }
 
     @Command(description = "Put a file on the current bucket.",
@@ -635,8 +1687,13 @@ public class S3Shell implements ShellCommandHandler {
                           @Param(name = "remotePath",
                                  description = "The remote file path to upload the file to.")String remotePath) {
 
+        return putFile(localFile, remotePath, bandwidthGovernor.newThrottle(null), false);
+    }
+
+    private String putFile(String localFile, String remotePath, final Throttle throttle, boolean background) {
+
         //TODO: add argument validation; NPEs are possible here though I think cliche prevents this.
-        File fileForUpload = new File(localFile);
+        final File fileForUpload = new File(localFile);
         if(remotePath.startsWith("/")) {
             remotePath = remotePath.substring(1);
             System.out.println("removing leading '/' because it is unnecessary and is interpreted as a literal path");
@@ -646,11 +1703,386 @@ public class S3Shell implements ShellCommandHandler {
             String remoteFilePathStr = remotePath.substring(0, remotePath.length()-1);
             remotePath = remoteFilePathStr + "/" + shortFileName;
         }
-        PutObjectResult result = s3client.putObject(new PutObjectRequest(selectedBucket.getBucketName(), remotePath, fileForUpload));
-        String contentMd5String = result.getContentMd5();
-        System.out.println("md5: " + contentMd5String);
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
+        final String key = remotePath;
+        final Catalog catalog = findCatalog();
+        final String alias = selectedBucket.getAlias();
+
+        if(background) {
+            return startJob("put " + localFile + " " + key, fileForUpload.length(), throttle,
+                            invalidating(alias, key, out -> uploadObject(client, bucketName, fileForUpload, key,
+                                                                         catalog, throttle, out, null)));
+        }
+        try {
+            return uploadObject(client, bucketName, fileForUpload, key, catalog, throttle, System.out, System.out);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "failed to upload " + localFile + " with error: " + e.getMessage();
+        } finally {
+            listingCache.invalidate(alias, key);
+        }
+    }
+
+    private String uploadObject(AmazonS3Client client, String bucketName, File file, String key, Catalog catalog,
+                                Throttle throttle, PrintStream out, PrintStream progressOut) throws Exception {
+
+        String etag = uploadEngine.upload(client, bucketName, file, key, progressOut, throttle);
+        out.println("etag: " + etag);
+        if(catalog != null) {
+            catalog.put(new CatalogEntry(key, file.length(), System.currentTimeMillis(), etag));
+        }
+        return "Successfully uploaded " + key;
+    }
 
-        return "Successfully uploaded " + remotePath;
+    /**
+     * @return the catalog of the selected bucket if it has one, so that put and rm can keep it current.
+     */
+    private Catalog findCatalog() {
+        return findCatalog(selectedBucket);
+    }
+
+    private Catalog findCatalog(Bucket bucket) {
+
+        try {
+            return catalogManager.find(bucket.getAlias(), bucket.getBucketName());
+        } catch (IOException ioe) {
+            logger.error("unable to open the catalog of " + bucket.getAlias(), ioe);
+            return null;
+        }
+    }
+
+    @Command(description = "Put files on the current bucket using flags; -r uploads every file below the localFile " +
+                           "directory to keys under remotePath, -b runs the upload as a background job and " +
+                           "--dry-run with -r only reports the files, bytes and requests it would take.",
+             abbrev = "put")
+    public String putFile(@Param(name = "flags",
+                                 description = "Flags for the upload, e.g. -r for a recursive upload, -b for a " +
+                                               "background job or --limit=50MB/s to cap its bandwidth")String flags,
+                          @Param(name = "localFile",
+                                 description = "The local file, or the local directory for a recursive upload.")String localFile,
+                          @Param(name = "remotePath",
+                                 description = "The remote file path, or the remote prefix for a recursive upload.")String remotePath) {
+
+        final CommandFlags commandFlags;
+        final Throttle throttle;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            throttle = bandwidthGovernor.newThrottle(commandFlags.get("limit", null));
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+        if(commandFlags.has("dry-run") && !commandFlags.has('r')) {
+            return DRY_RUN_NEEDS_RECURSION;
+        }
+        if(!commandFlags.has('r')) {
+            return putFile(localFile, remotePath, throttle, commandFlags.has('b'));
+        }
+
+        final File directory = new File(localFile);
+        if(!directory.isDirectory()) {
+            return localFile + " is not a directory";
+        }
+        final String prefix = remotePath.startsWith("/") ? remotePath.substring(1) : remotePath;
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
+        final String alias = selectedBucket.getAlias();
+        if(commandFlags.has("dry-run")) {
+            return dryRun("put -r " + localFile + " " + prefix, () -> transferPlanner.planPut(directory));
+        }
+        final Catalog catalog = findCatalog();
+        if(commandFlags.has('b')) {
+            return startJob("put -r " + localFile + " " + prefix, -1, throttle,
+                            invalidating(alias, prefix, out -> uploadEngine.uploadDirectory(
+                                    client, bucketName, directory, prefix, entry -> catalog(catalog, entry), out,
+                                    throttle)));
+        }
+        try {
+            return uploadEngine.uploadDirectory(client, bucketName, directory, prefix,
+                                                entry -> catalog(catalog, entry), System.out, throttle);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "failed to upload " + localFile + " with error: " + e.getMessage();
+        } finally {
+            listingCache.invalidate(alias, prefix);
+        }
+    }
+
+    @Command(description = "Copy only the differences between a local directory and a prefix on the current bucket. " +
+                           "Direction up makes the bucket match the directory, down makes the directory match the bucket.")
+    public String sync(@Param(name = "direction",
+                              description = "up (local to bucket) or down (bucket to local)")String direction,
+                       @Param(name = "localDirectory",
+                              description = "The local directory to synchronize.")String localDirectory,
+                       @Param(name = "remotePrefix",
+                              description = "The prefix on the current bucket to synchronize.")String remotePrefix) {
+
+        return sync("", direction, localDirectory, remotePrefix);
+    }
+
+    @Command(description = "Copy only the differences between a local directory and a prefix on the current bucket. " +
+                           "Flags: -d deletes entries missing from the source, -c compares MD5 against the ETag, " +
+                           "-b runs in the background, --limit=50MB/s caps the bandwidth.")
+    public String sync(@Param(name = "flags",
+                              description = "-d to delete extraneous entries, -c to compare checksums, " +
+                                            "-b for a background job, --limit=<rate> to cap the bandwidth")String flags,
+                       @Param(name = "direction",
+                              description = "up (local to bucket) or down (bucket to local)")String direction,
+                       @Param(name = "localDirectory",
+                              description = "The local directory to synchronize.")String localDirectory,
+                       @Param(name = "remotePrefix",
+                              description = "The prefix on the current bucket to synchronize.")String remotePrefix) {
+
+        final CommandFlags commandFlags;
+        final SyncEngine.Direction syncDirection;
+        final Throttle throttle;
+        try {
+            commandFlags = CommandFlags.parse(flags);
+            syncDirection = SyncEngine.Direction.valueOf(direction.toUpperCase());
+            throttle = bandwidthGovernor.newThrottle(commandFlags.get("limit", null));
+        } catch (IllegalArgumentException iae) {
+            return "direction must be up or down and flags must start with -: " + iae.getMessage();
+        }
+        if(s3client == null) {
+            return "no bucket selected; use changeBucket(cb)";
+        }
+
+        final File localRoot = new File(localDirectory);
+        if(syncDirection == SyncEngine.Direction.UP && !localRoot.isDirectory()) {
+            return localDirectory + " is not a directory";
+        }
+        if(localRoot.exists() && !localRoot.isDirectory()) {
+            return localDirectory + " is not a directory";
+        }
+        final String prefix = remotePrefix.startsWith("/") ? remotePrefix.substring(1) : remotePrefix;
+        final AmazonS3Client client = s3client;
+        final String bucketName = selectedBucket.getBucketName();
+        final String alias = selectedBucket.getAlias();
+        final Catalog catalog = syncDirection == SyncEngine.Direction.UP ? findCatalog() : null;
+        final JobManager.Task task = out -> syncEngine.sync(client, bucketName, localRoot, prefix, syncDirection,
+                                                            commandFlags.has('d'), commandFlags.has('c'),
+                                                            entry -> catalog(catalog, entry),
+                                                            keys -> uncatalog(catalog, keys), out, throttle);
+        final JobManager.Task syncTask = syncDirection == SyncEngine.Direction.UP ? invalidating(alias, prefix, task)
+                                                                                  : task;
+        if(commandFlags.has('b')) {
+            return startJob("sync " + direction + " " + localDirectory + " " + prefix, -1, throttle, syncTask);
+        }
+        try {
+            return syncTask.run(System.out);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return "failed to sync " + localDirectory + " with error: " + e.getMessage();
+        }
+    }
+
+    /**
+     * @return {@code task}, dropping the cached listings that include {@code prefix} once it has changed the bucket.
+     */
+    private JobManager.Task invalidating(final String alias, final String prefix, final JobManager.Task task) {
+
+        return out -> {
+            try {
+                return task.run(out);
+            } finally {
+                listingCache.invalidate(alias, prefix);
+            }
+        };
+    }
+
+    private String startJob(String command, long totalBytes, Throttle throttle, JobManager.Task task) {
+
+        Job job = jobManager.submit(command, totalBytes, throttle, task);
+        return "[" + job.getId() + "] started in the background; use jobs to follow it";
+    }
+
+    @Command(description = "List background jobs with their progress, rate and estimated time remaining.")
+    public String jobs() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(StringPaddingUtil.pad("ID", 5)).append(StringPaddingUtil.pad("STATE", 9))
+          .append(StringPaddingUtil.pad("DONE", 22)).append(StringPaddingUtil.pad("RATE", 12))
+          .append(StringPaddingUtil.pad("ETA", 10)).append("COMMAND\n");
+        for(Job job : jobManager.getJobs()) {
+            String done = FileUtils.byteCountToDisplaySize(job.getBytes());
+            if(job.getTotalBytes() >= 0) {
+                done += " / " + FileUtils.byteCountToDisplaySize(job.getTotalBytes());
+            }
+            long eta = job.getEtaSeconds();
+            sb.append(StringPaddingUtil.pad(String.valueOf(job.getId()), 5))
+              .append(StringPaddingUtil.pad(job.getState().name().toLowerCase(), 9))
+              .append(StringPaddingUtil.pad(done, 22))
+              .append(StringPaddingUtil.pad(FileUtils.byteCountToDisplaySize(job.getRate()) + "/s", 12))
+              .append(StringPaddingUtil.pad(eta < 0 ? "-" : eta / 60 + "m" + eta % 60 + "s", 10))
+              .append(job.getCommand()).append("\n");
+            if(job.isFinished() && job.getResult() != null) {
+                sb.append("     ").append(job.getResult()).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Command(description = "Remove finished jobs from the jobs list.")
+    public String jobs(@Param(name = "action",
+                              description = "clear to remove finished jobs")String action) {
+
+        if(!"clear".equals(action)) {
+            return "unknown jobs action " + action + "; use jobs clear";
+        }
+        return "removed " + jobManager.clearFinished() + " finished jobs";
+    }
+
+    @Command(description = "Wait for a background job to finish and show its output.",
+             abbrev = "wait")
+    public String waitForJob(@Param(name = "jobId",
+                                    description = "The id shown by the jobs command.")Integer jobId) {
+
+        Job job = jobManager.getJob(jobId);
+        if(job == null) {
+            return "no job " + jobId;
+        }
+        try {
+            job.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return "interrupted while waiting for job " + jobId;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(String line : job.getLog()) {
+            sb.append(line).append("\n");
+        }
+        sb.append("[").append(job.getId()).append("] ").append(job.getState().name().toLowerCase()).append(": ")
+          .append(job.getResult());
+        return sb.toString();
+    }
+
+    @Command(description = "Stop a background job. An interrupted download resumes when it is started again.",
+             abbrev = "kill")
+    public String killJob(@Param(name = "jobId",
+                                 description = "The id shown by the jobs command.")Integer jobId) {
+
+        Job job = jobManager.getJob(jobId);
+        if(job == null) {
+            return "no job " + jobId;
+        }
+        return jobManager.kill(job) ? "killed job " + jobId : "job " + jobId + " has already finished";
+    }
+
+    @Command(description = "Show the bandwidth limit shared by all transfers.")
+    public String throttle() {
+
+        long limit = bandwidthGovernor.getLimit();
+        return limit == 0 ? "no bandwidth limit" : "bandwidth limit " + FileUtils.byteCountToDisplaySize(limit) + "/s";
+    }
+
+    @Command(description = "Change the bandwidth limit shared by all transfers, including running ones, " +
+                           "e.g. throttle 50MB/s; throttle off removes the limit.")
+    public String throttle(@Param(name = "limit",
+                                  description = "A rate such as 50MB/s or 512KB/s, or off for no limit.")String limit) {
+
+        try {
+            bandwidthGovernor.setLimit(limit);
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        return throttle();
+    }
+
+    @Command(description = "Show the transfer settings used by get and put.")
+    public String settings() {
+
+        StringBuilder sb = new StringBuilder();
+        for(Map.Entry<String, String> setting : transferSettings.describe().entrySet()) {
+            sb.append(setting.getKey()).append(" = ").append(setting.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    @Command(description = "Change a transfer setting for this session, e.g. settings download.partSize 32MB")
+    public String settings(@Param(name = "name",
+                                  description = "The name of the setting as shown by the settings command.")String name,
+                           @Param(name = "value",
+                                  description = "The new value for the setting.")String value) {
+
+        try {
+            transferSettings.set(name, value);
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+        return name + " = " + transferSettings.describe().get(name);
+    }
+
+    @Command(description = "Compare local write throughput of the download paths for 1MB, 100MB and 5GB objects.",
+             abbrev = "bench-get")
+    public String benchmarkDownload() {
+
+        return benchmarkDownload("1MB,100MB,5GB");
+    }
+
+    @Command(description = "Compare local write throughput of the download paths for the given object sizes.",
+             abbrev = "bench-get")
+    public String benchmarkDownload(@Param(name = "sizes",
+                                           description = "A comma separated list of object sizes, e.g. 1MB,100MB,5GB")
+                                    String sizes) {
+
+        String[] sizeValues = sizes.split(",");
+        long[] byteCounts = new long[sizeValues.length];
+        try {
+            for(int i = 0; i < sizeValues.length; i++) {
+                byteCounts[i] = ByteSizes.parse(sizeValues[i]);
+            }
+            new DownloadBenchmark(bufferPool, System.out).run(new File(System.getProperty("java.io.tmpdir")), byteCounts);
+        } catch (IllegalArgumentException | IOException e) {
+            logger.error(e.getMessage(), e);
+            return "benchmark failed: " + e.getMessage();
+        }
+        return "";
+    }
+
+    @Command(description = "Compare sequential and prefetched listing of 1M simulated keys with 20ms requests and " +
+                           "10ms of processing per page.",
+             abbrev = "bench-list")
+    public String benchmarkListing() {
+
+        return benchmarkListing(1000000, 20, 10);
+    }
+
+    @Command(description = "Compare sequential and prefetched listing of simulated keys.",
+             abbrev = "bench-list")
+    public String benchmarkListing(@Param(name = "keys",
+                                          description = "The number of keys to list.")Integer keys,
+                                   @Param(name = "latencyMillis",
+                                          description = "The simulated time of one page request.")Integer latencyMillis,
+                                   @Param(name = "processMillis",
+                                          description = "The simulated processing time of one page.")Integer processMillis) {
+
+        try {
+            new ListingBenchmark(System.out).run(keys, latencyMillis, processMillis);
+        } catch (IOException | InterruptedException e) {
+            logger.error(e.getMessage(), e);
+            return "benchmark failed: " + e.getMessage();
+        }
+        return "";
+    }
+
+    @Command(description = "Compare the heap used by 10M keys in the compact key store and in a list of " +
+                           "S3ObjectSummary objects.",
+             abbrev = "bench-keys")
+    public String benchmarkKeyStore() {
+        return benchmarkKeyStore(10000000);
+    }
+
+    @Command(description = "Compare the heap used by keys in the compact key store and in a list of " +
+                           "S3ObjectSummary objects.",
+             abbrev = "bench-keys")
+    public String benchmarkKeyStore(@Param(name = "keys", description = "The number of keys to hold.")Integer keys) {
+
+        new KeyStoreBenchmark(System.out).run(keys);
+        return "";
     }
 
     @Command(description = "Import a set of buckets from a CSV file into this S3Shell instance.",
@@ -786,6 +2218,10 @@ public class S3Shell implements ShellCommandHandler {
 
         saveCommandsToFile(commandHistory);
 
+        for(Job job : jobManager.takeFinished()) {
+            System.out.println("[" + job.getId() + "] " + job.getState().name().toLowerCase() + ": " + job.getCommand());
+        }
+
     }
 
 
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.catalog;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.listing.KeyOrder;
+import jds.s3shell.listing.ObjectPages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * The catalog of one bucket: a {@link CatalogIndex} written by the last refresh plus a log of the objects this
+ * shell has put or removed since, which is kept in memory and merged into every listing.
+ *
+ * @author jsvede
+ */
+public class Catalog {
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final byte PUT = 'P';
+
+    private static final byte DELETE = 'D';
+
+    private static final CatalogEntry DELETED = new CatalogEntry("", -1, 0, "");
+
+    private final String bucketName;
+
+    private final File indexFile;
+
+    private final File logFile;
+
+    private CatalogIndex index;
+
+    private final NavigableMap<String, CatalogEntry> changes = new TreeMap<>(KeyOrder.COMPARATOR);
+
+    Catalog(String bucketName, File indexFile, File logFile) throws IOException {
+
+        this.bucketName = bucketName;
+        this.indexFile = indexFile;
+        this.logFile = logFile;
+        this.index = CatalogIndex.open(indexFile);
+        readLog();
+    }
+
+    /**
+     * @return true once the catalog has been refreshed.
+     */
+    public synchronized boolean exists() {
+        return index.getRefreshed() > 0;
+    }
+
+    public synchronized long getRefreshed() {
+        return index.getRefreshed();
+    }
+
+    public synchronized int getIndexedCount() {
+        return index.size();
+    }
+
+    public synchronized int getChangeCount() {
+        return changes.size();
+    }
+
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Record an object this shell has uploaded.
+     */
+    public synchronized void put(CatalogEntry entry) throws IOException {
+
+        try(DataOutputStream log = openLog()) {
+            log.writeByte(PUT);
+            log.writeUTF(entry.getKey());
+            log.writeLong(entry.getSize());
+            log.writeLong(entry.getLastModified());
+            log.writeUTF(entry.getETag());
+        }
+        changes.put(entry.getKey(), entry);
+    }
+
+    /**
+     * Record an object this shell has removed.
+     */
+    public synchronized void remove(String key) throws IOException {
+
+        try(DataOutputStream log = openLog()) {
+            log.writeByte(DELETE);
+            log.writeUTF(key);
+        }
+        changes.put(key, DELETED);
+    }
+
+    /**
+     * Record objects this shell has removed, opening the log once for all of them.
+     */
+    public synchronized void remove(Collection<String> keys) throws IOException {
+
+        try(DataOutputStream log = openLog()) {
+            for(String key : keys) {
+                log.writeByte(DELETE);
+                log.writeUTF(key);
+            }
+        }
+        for(String key : keys) {
+            changes.put(key, DELETED);
+        }
+    }
+
+    /**
+     * @return the entries under {@code prefix} in key order, as listing pages.
+     */
+    public synchronized ObjectPages pages(String prefix) {
+
+        final Iterator<CatalogEntry> entries = entries(prefix);
+        return new ObjectPages() {
+
+            @Override
+            public List<S3ObjectSummary> nextSummaries() {
+
+                if(!entries.hasNext()) {
+                    return null;
+                }
+                List<S3ObjectSummary> page = new ArrayList<>(PAGE_SIZE);
+                while(page.size() < PAGE_SIZE && entries.hasNext()) {
+                    page.add(entries.next().toSummary(bucketName));
+                }
+                return page;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /**
+     * @return the number of objects and their total size under {@code prefix}.
+     */
+    public synchronized long[] summarize(String prefix) {
+
+        long[] totals = new long[2];
+        Iterator<CatalogEntry> entries = entries(prefix);
+        while(entries.hasNext()) {
+            totals[0]++;
+            totals[1] += entries.next().getSize();
+        }
+        return totals;
+    }
+
+    /**
+     * Replace the entries under {@code prefix} with a fresh listing of it; entries outside the prefix are
+     * kept and the logged changes are folded into the new index.
+     *
+     * @param listing - the listing of {@code prefix} in key order.
+     * @return the number of objects listed.
+     */
+    public synchronized int refresh(String prefix, ObjectPages listing) throws IOException {
+
+        int listed = 0;
+        try(CatalogIndex.Writer writer = new CatalogIndex.Writer(indexFile)) {
+            Iterator<CatalogEntry> current = entries("");
+            boolean inserted = false;
+            while(current.hasNext()) {
+                CatalogEntry entry = current.next();
+                if(!inserted && KeyOrder.compare(entry.getKey(), prefix) >= 0) {
+                    listed = copy(listing, writer);
+                    inserted = true;
+                }
+                if(!entry.getKey().startsWith(prefix)) {
+                    writer.add(entry);
+                }
+            }
+            if(!inserted) {
+                listed = copy(listing, writer);
+            }
+            writer.finish();
+        }
+
+        index = CatalogIndex.open(indexFile);
+        changes.clear();
+        logFile.delete();
+        return listed;
+    }
+
+    /**
+     * Remove the catalog files.
+     */
+    public synchronized void drop() {
+
+        changes.clear();
+        logFile.delete();
+        index = CatalogIndex.empty();
+        indexFile.delete();
+    }
+
+    private int copy(ObjectPages listing, CatalogIndex.Writer writer) throws IOException {
+
+        int copied = 0;
+        List<S3ObjectSummary> page;
+        while((page = listing.nextSummaries()) != null) {
+            for(S3ObjectSummary summary : page) {
+                writer.add(CatalogEntry.of(summary));
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * @return the indexed entries under {@code prefix} merged with the logged changes, in key order.
+     */
+    private Iterator<CatalogEntry> entries(final String prefix) {
+
+        final CatalogIndex snapshot = index;
+        final Iterator<Map.Entry<String, CatalogEntry>> logged =
+                new TreeMap<>(changes.tailMap(prefix, true)).entrySet().iterator();
+
+        return new Iterator<CatalogEntry>() {
+
+            private int position = snapshot.lowerBound(prefix);
+
+            private CatalogEntry indexed = nextIndexed();
+
+            private Map.Entry<String, CatalogEntry> change = nextChange();
+
+            private CatalogEntry next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public CatalogEntry next() {
+
+                if(next == null) {
+                    throw new NoSuchElementException();
+                }
+                CatalogEntry result = next;
+                next = advance();
+                return result;
+            }
+
+            private CatalogEntry advance() {
+
+                while(indexed != null || change != null) {
+                    int order = indexed == null ? 1 : change == null ? -1
+                              : KeyOrder.compare(indexed.getKey(), change.getKey());
+                    if(order < 0) {
+                        CatalogEntry result = indexed;
+                        indexed = nextIndexed();
+                        return result;
+                    }
+                    if(order == 0) {
+                        indexed = nextIndexed();
+                    }
+                    CatalogEntry result = change.getValue();
+                    change = nextChange();
+                    if(result != DELETED) {
+                        return result;
+                    }
+                }
+                return null;
+            }
+
+            private CatalogEntry nextIndexed() {
+
+                if(position >= snapshot.size() || !snapshot.getKey(position).startsWith(prefix)) {
+                    return null;
+                }
+                return snapshot.get(position++);
+            }
+
+            private Map.Entry<String, CatalogEntry> nextChange() {
+
+                if(!logged.hasNext()) {
+                    return null;
+                }
+                Map.Entry<String, CatalogEntry> entry = logged.next();
+                return entry.getKey().startsWith(prefix) ? entry : null;
+            }
+        };
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+    }
+
+    private void readLog() throws IOException {
+
+        if(!logFile.exists()) {
+            return;
+        }
+        try(DataInputStream log = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while(true) {
+                byte operation = log.readByte();
+                String key = log.readUTF();
+                if(operation == PUT) {
+                    changes.put(key, new CatalogEntry(key, log.readLong(), log.readLong(), log.readUTF()));
+                } else {
+                    changes.put(key, DELETED);
+                }
+            }
+        } catch (EOFException eof) {
+            // end of the log, or a change that was only partly written
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.catalog;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.Date;
+
+/**
+ * The key, size, last modified time and ETag of one object in a catalog.
+ *
+ * @author jsvede
+ */
+public class CatalogEntry {
+
+    private final String key;
+
+    private final long size;
+
+    private final long lastModified;
+
+    private final String eTag;
+
+    public CatalogEntry(String key, long size, long lastModified, String eTag) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.eTag = eTag == null ? "" : eTag;
+    }
+
+    public static CatalogEntry of(S3ObjectSummary summary) {
+
+        Date lastModified = summary.getLastModified();
+        return new CatalogEntry(summary.getKey(), summary.getSize(), lastModified == null ? 0 : lastModified.getTime(),
+                                summary.getETag());
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public S3ObjectSummary toSummary(String bucketName) {
+
+        S3ObjectSummary summary = new S3ObjectSummary();
+        summary.setBucketName(bucketName);
+        summary.setKey(key);
+        summary.setSize(size);
+        summary.setLastModified(new Date(lastModified));
+        summary.setETag(eTag);
+        return summary;
+    }
+}
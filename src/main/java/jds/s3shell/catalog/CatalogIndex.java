@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.catalog;
+
+import jds.s3shell.listing.KeyOrder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A sorted, memory mapped file of catalog entries which is searched in place without loading it.
+ * <p>
+ * The file starts with a header of magic, version, entry count, refresh time and the position of the offsets
+ * table. The entries follow in key order, each as the UTF-8 key, size, last modified time and ETag, and the
+ * file ends with the position of every entry so that a key is found with a binary search. UTF-8 byte order
+ * is code point order, the order S3 lists keys in, so keys are compared without decoding them.
+ *
+ * @author jsvede
+ */
+public class CatalogIndex {
+
+    private static final int MAGIC = 0x53334358;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final CatalogIndex EMPTY = new CatalogIndex(ByteBuffer.allocate(0), 0, 0, 0);
+
+    private final ByteBuffer buffer;
+
+    private final int count;
+
+    private final long refreshed;
+
+    private final int offsetsPosition;
+
+    private CatalogIndex(ByteBuffer buffer, int count, long refreshed, int offsetsPosition) {
+        this.buffer = buffer;
+        this.count = count;
+        this.refreshed = refreshed;
+        this.offsetsPosition = offsetsPosition;
+    }
+
+    public static CatalogIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the index stored in {@code file}, or an empty index if the file does not exist.
+     * @throws IOException if the file cannot be read or is not a catalog index.
+     */
+    public static CatalogIndex open(File file) throws IOException {
+
+        if(!file.exists()) {
+            return empty();
+        }
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a catalog index");
+            }
+            if(buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " was written by another version of s3shell; refresh the catalog");
+            }
+            return new CatalogIndex(buffer, (int) buffer.getLong(8), buffer.getLong(16), (int) buffer.getLong(24));
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return when the index was written, in milliseconds since the epoch, or 0 if it has never been written.
+     */
+    public long getRefreshed() {
+        return refreshed;
+    }
+
+    /**
+     * @return the position of the first entry whose key is not before {@code key}.
+     */
+    public int lowerBound(String key) {
+
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(compareKey(entryPosition(middle), target) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public CatalogEntry get(int index) {
+
+        int position = entryPosition(index);
+        int keyLength = buffer.getShort(position) & 0xFFFF;
+        String key = decode(position + 2, keyLength);
+        position += 2 + keyLength;
+        long size = buffer.getLong(position);
+        long lastModified = buffer.getLong(position + 8);
+        int eTagLength = buffer.get(position + 16) & 0xFF;
+        return new CatalogEntry(key, size, lastModified, decode(position + 17, eTagLength));
+    }
+
+    public String getKey(int index) {
+
+        int position = entryPosition(index);
+        return decode(position + 2, buffer.getShort(position) & 0xFFFF);
+    }
+
+    private int entryPosition(int index) {
+        return buffer.getInt(offsetsPosition + index * 4);
+    }
+
+    private int compareKey(int position, byte[] target) {
+
+        int length = buffer.getShort(position) & 0xFFFF;
+        int common = Math.min(length, target.length);
+        for(int i = 0; i < common; i++) {
+            int difference = (buffer.get(position + 2 + i) & 0xFF) - (target[i] & 0xFF);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return length - target.length;
+    }
+
+    private String decode(int position, int length) {
+
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a new index next to the target file and moves it into place when finished, so readers never see
+     * a partial index. Entries must be added in key order.
+     */
+    public static class Writer implements Closeable {
+
+        private final File target;
+
+        private final File entriesFile;
+
+        private final File offsetsFile;
+
+        private final DataOutputStream entries;
+
+        private final DataOutputStream offsets;
+
+        private long position = HEADER_SIZE;
+
+        private int count;
+
+        private String lastKey;
+
+        private boolean finished;
+
+        public Writer(File target) throws IOException {
+
+            this.target = target;
+            this.entriesFile = new File(target.getPath() + ".tmp");
+            this.offsetsFile = new File(target.getPath() + ".offsets");
+            this.entries = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(entriesFile), 1 << 16));
+            this.offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile), 1 << 16));
+            entries.write(new byte[HEADER_SIZE]);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the entry is not after the previous one.
+         */
+        public void add(CatalogEntry entry) throws IOException {
+
+            if(lastKey != null && KeyOrder.compare(lastKey, entry.getKey()) >= 0) {
+                throw new IllegalArgumentException("catalog entries out of order: " + entry.getKey() +
+                                                   " after " + lastKey);
+            }
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] eTag = entry.getETag().getBytes(StandardCharsets.UTF_8);
+            if(key.length > 0xFFFF || eTag.length > 0xFF) {
+                throw new IllegalArgumentException("key or ETag too long for the catalog: " + entry.getKey());
+            }
+            if(position > Integer.MAX_VALUE - key.length - eTag.length - 19) {
+                throw new IOException("the catalog index is limited to 2GB; refresh a smaller prefix");
+            }
+
+            offsets.writeInt((int) position);
+            entries.writeShort(key.length);
+            entries.write(key);
+            entries.writeLong(entry.getSize());
+            entries.writeLong(entry.getLastModified());
+            entries.writeByte(eTag.length);
+            entries.write(eTag);
+
+            position += 2 + key.length + 17 + eTag.length;
+            lastKey = entry.getKey();
+            count++;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Append the offsets table, write the header and replace the target file.
+         */
+        public void finish() throws IOException {
+
+            offsets.close();
+            if(position + 4L * count > Integer.MAX_VALUE) {
+                throw new IOException("the catalog index is limited to 2GB; refresh a smaller prefix");
+            }
+            try(InputStream in = new FileInputStream(offsetsFile)) {
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while((read = in.read(buffer)) > 0) {
+                    entries.write(buffer, 0, read);
+                }
+            }
+            entries.close();
+
+            try(RandomAccessFile raf = new RandomAccessFile(entriesFile, "rw")) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeLong(count);
+                raf.writeLong(System.currentTimeMillis());
+                raf.writeLong(position);
+            }
+            Files.move(entriesFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            entries.close();
+            offsets.close();
+            offsetsFile.delete();
+            if(!finished) {
+                entriesFile.delete();
+            }
+        }
+    }
+}
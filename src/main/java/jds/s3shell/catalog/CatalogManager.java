@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.catalog;
+
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens the catalog of each bucket alias from ~/.s3shell/catalog, next to the bucket and history files.
+ *
+ * @author jsvede
+ */
+@Component
+public class CatalogManager {
+
+    private final File directory;
+
+    private final Map<String, Catalog> catalogs = new HashMap<>();
+
+    public CatalogManager() {
+        this(new File(System.getProperty("user.home") + File.separator + ".s3shell" + File.separator + "catalog"));
+    }
+
+    public CatalogManager(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the catalog of the bucket with {@code alias}, which is empty until it is refreshed.
+     */
+    public synchronized Catalog get(String alias, String bucketName) throws IOException {
+
+        Catalog catalog = catalogs.get(alias);
+        if(catalog == null) {
+            if(!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("unable to create the catalog directory " + directory);
+            }
+            String name = alias.replaceAll("[^A-Za-z0-9._-]", "_");
+            catalog = new Catalog(bucketName, new File(directory, name + ".idx"), new File(directory, name + ".log"));
+            catalogs.put(alias, catalog);
+        }
+        return catalog;
+    }
+
+    /**
+     * @return the catalog of the bucket with {@code alias} if it has been refreshed, otherwise null.
+     */
+    public Catalog find(String alias, String bucketName) throws IOException {
+
+        Catalog catalog = get(alias, bucketName);
+        return catalog.exists() ? catalog : null;
+    }
+}
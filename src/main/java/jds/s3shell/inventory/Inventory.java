@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.inventory;
+
+import jds.s3shell.listing.CompactKeyStore;
+import jds.s3shell.listing.ObjectPages;
+
+import java.io.File;
+
+/**
+ * The objects of a bucket as of an S3 Inventory report, held in a {@link CompactKeyStore}.
+ *
+ * @author jsvede
+ */
+public class Inventory {
+
+    private final String bucketName;
+
+    private final File manifest;
+
+    private final long created;
+
+    private final CompactKeyStore keys;
+
+    public Inventory(String bucketName, File manifest, long created, CompactKeyStore keys) {
+        this.bucketName = bucketName;
+        this.manifest = manifest;
+        this.created = created;
+        this.keys = keys;
+    }
+
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    public File getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return when the report was created in milliseconds since the epoch, or 0 if unknown.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public CompactKeyStore getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the objects under {@code prefix} as listing pages.
+     */
+    public ObjectPages pages(String prefix) {
+        return keys.pages(bucketName, prefix);
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.inventory;
+
+import jds.s3shell.listing.CompactKeyStore;
+import jds.s3shell.listing.KeyOrder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the CSV data files of an S3 Inventory report from local disk into a {@link CompactKeyStore}. Each data
+ * file is decompressed, parsed and sorted into a store of its own on a pool of threads, and the stores are then
+ * merged in key order. Delete markers and noncurrent versions are skipped.
+ *
+ * @author jsvede
+ */
+public class InventoryLoader {
+
+    private static final Comparator<Row> ROW_ORDER = (left, right) -> KeyOrder.compare(left.key, right.key);
+
+    private final int threads;
+
+    private final PrintStream out;
+
+    /**
+     * @param threads - the number of data files read at once.
+     * @param out - where progress is reported.
+     */
+    public InventoryLoader(int threads, PrintStream out) {
+        this.threads = Math.max(1, threads);
+        this.out = out;
+    }
+
+    /**
+     * @throws IOException if the manifest or a data file cannot be read.
+     */
+    public Inventory load(File manifestFile) throws IOException {
+
+        InventoryManifest manifest = InventoryManifest.read(manifestFile);
+        final List<File> dataFiles = manifest.findDataFiles(manifestFile);
+        final Columns columns = new Columns(manifest.getColumns());
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "s3shell-inventory-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompactKeyStore> parts = new ArrayList<>(dataFiles.size());
+        try {
+            List<Future<CompactKeyStore>> futures = new ArrayList<>(dataFiles.size());
+            for(final File dataFile : dataFiles) {
+                futures.add(executor.submit(() -> readDataFile(dataFile, columns)));
+            }
+            for(int i = 0; i < futures.size(); i++) {
+                parts.add(futures.get(i).get());
+                out.println("read " + dataFiles.get(i).getName() + ": " + parts.get(i).size() + " objects");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading the inventory", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            throw cause instanceof IOException ? (IOException) cause
+                                               : new IOException("unable to read the inventory: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new Inventory(manifest.getSourceBucket(), manifestFile, manifest.getCreationTime(), merge(parts));
+    }
+
+    private CompactKeyStore readDataFile(File dataFile, Columns columns) throws IOException {
+
+        List<Row> rows = new ArrayList<>();
+        try(InputStream in = open(dataFile);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            int lineNumber = 0;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                if(line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = splitCsv(line);
+                try {
+                    Row row = columns.toRow(fields);
+                    if(row != null) {
+                        rows.add(row);
+                    }
+                } catch (IllegalArgumentException | DateTimeParseException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException(dataFile.getName() + " line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        Row[] sorted = rows.toArray(new Row[rows.size()]);
+        rows = null;
+        Arrays.sort(sorted, ROW_ORDER);
+        CompactKeyStore.Builder builder = new CompactKeyStore.Builder();
+        String previous = null;
+        for(Row row : sorted) {
+            if(!row.key.equals(previous)) {
+                builder.add(row.key, row.size, row.lastModified);
+                previous = row.key;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Merge sorted stores into one, keeping the first entry of a key that appears in several.
+     */
+    private static CompactKeyStore merge(List<CompactKeyStore> parts) {
+
+        if(parts.size() == 1) {
+            return parts.get(0);
+        }
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        for(CompactKeyStore part : parts) {
+            CompactKeyStore.Cursor cursor = part.cursor(0);
+            if(cursor.next()) {
+                heads.add(new Head(cursor));
+            }
+        }
+        CompactKeyStore.Builder builder = new CompactKeyStore.Builder();
+        String previous = null;
+        while(!heads.isEmpty()) {
+            Head head = heads.poll();
+            if(!head.key.equals(previous)) {
+                builder.add(head.key, head.cursor.getSize(), head.cursor.getLastModified());
+                previous = head.key;
+            }
+            if(head.cursor.next()) {
+                head.key = head.cursor.getKey();
+                heads.add(head);
+            }
+        }
+        return builder.build();
+    }
+
+    private static InputStream open(File dataFile) throws IOException {
+
+        InputStream in = Files.newInputStream(dataFile.toPath());
+        return dataFile.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    /**
+     * Split a CSV line whose fields may be quoted, with quotes inside quoted fields doubled.
+     */
+    static String[] splitCsv(String line) {
+
+        List<String> fields = new ArrayList<>(16);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if(quoted) {
+                if(c == '"') {
+                    if(i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if(c == '"') {
+                quoted = true;
+            } else if(c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * The positions of the columns an inventory row is read from.
+     */
+    private static class Columns {
+
+        private final int key;
+
+        private final int size;
+
+        private final int lastModified;
+
+        private final int isLatest;
+
+        private final int isDeleteMarker;
+
+        Columns(String[] names) throws IOException {
+
+            List<String> columns = Arrays.asList(names);
+            key = columns.indexOf("Key");
+            size = columns.indexOf("Size");
+            lastModified = columns.indexOf("LastModifiedDate");
+            isLatest = columns.indexOf("IsLatest");
+            isDeleteMarker = columns.indexOf("IsDeleteMarker");
+            if(key < 0) {
+                throw new IOException("the inventory has no Key column");
+            }
+        }
+
+        /**
+         * @return the row, or null for a delete marker or a noncurrent version.
+         */
+        Row toRow(String[] fields) {
+
+            if((isDeleteMarker >= 0 && "true".equalsIgnoreCase(fields[isDeleteMarker])) ||
+               (isLatest >= 0 && "false".equalsIgnoreCase(fields[isLatest]))) {
+                return null;
+            }
+            long objectSize = size < 0 || fields[size].isEmpty() ? 0 : Long.parseLong(fields[size]);
+            long modified = lastModified < 0 || fields[lastModified].isEmpty() ? 0
+                          : Instant.parse(fields[lastModified]).toEpochMilli();
+            return new Row(decode(fields[key]), objectSize, modified);
+        }
+
+        /**
+         * Inventory reports URL encode keys.
+         */
+        private static String decode(String key) {
+
+            try {
+                return URLDecoder.decode(key, "UTF-8");
+            } catch (UnsupportedEncodingException uee) {
+                throw new IllegalStateException(uee);
+            }
+        }
+    }
+
+    private static class Row {
+
+        private final String key;
+
+        private final long size;
+
+        private final long lastModified;
+
+        Row(String key, long size, long lastModified) {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class Head implements Comparable<Head> {
+
+        private final CompactKeyStore.Cursor cursor;
+
+        private String key;
+
+        Head(CompactKeyStore.Cursor cursor) {
+            this.cursor = cursor;
+            this.key = cursor.getKey();
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return KeyOrder.compare(key, other.key);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.inventory;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the inventories loaded in this session by source bucket name.
+ *
+ * @author jsvede
+ */
+@Component
+public class InventoryManager {
+
+    private final Map<String, Inventory> inventories = new LinkedHashMap<>();
+
+    private Inventory lastLoaded;
+
+    public InventoryManager() {}
+
+    public synchronized void add(Inventory inventory) {
+
+        inventories.put(inventory.getBucketName(), inventory);
+        lastLoaded = inventory;
+    }
+
+    /**
+     * @return the inventory of {@code bucketName}, or the last one loaded if {@code bucketName} is null.
+     */
+    public synchronized Inventory get(String bucketName) {
+        return bucketName == null ? lastLoaded : inventories.get(bucketName);
+    }
+
+    public synchronized Collection<Inventory> getInventories() {
+        return new ArrayList<>(inventories.values());
+    }
+
+    public synchronized void clear() {
+
+        inventories.clear();
+        lastLoaded = null;
+    }
+}
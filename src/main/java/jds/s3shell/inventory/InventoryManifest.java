@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.inventory;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The manifest.json of an S3 Inventory report, which names the source bucket, the CSV columns and the data
+ * files of the report.
+ *
+ * @author jsvede
+ */
+public class InventoryManifest {
+
+    private String sourceBucket;
+
+    private String fileFormat;
+
+    private String fileSchema;
+
+    private String creationTimestamp;
+
+    private List<DataFile> files = new ArrayList<>();
+
+    /**
+     * @throws IOException if the manifest cannot be read or is not a CSV inventory manifest.
+     */
+    public static InventoryManifest read(File manifest) throws IOException {
+
+        InventoryManifest parsed;
+        try(Reader reader = new InputStreamReader(Files.newInputStream(manifest.toPath()), StandardCharsets.UTF_8)) {
+            parsed = new Gson().fromJson(reader, InventoryManifest.class);
+        } catch (RuntimeException re) {
+            throw new IOException(manifest + " is not an inventory manifest: " + re.getMessage(), re);
+        }
+        if(parsed == null || parsed.fileSchema == null || parsed.files == null) {
+            throw new IOException(manifest + " is not an inventory manifest");
+        }
+        if(parsed.fileFormat != null && !"CSV".equalsIgnoreCase(parsed.fileFormat)) {
+            throw new IOException("only CSV inventories can be loaded; " + manifest + " is " + parsed.fileFormat);
+        }
+        return parsed;
+    }
+
+    public String getSourceBucket() {
+        return sourceBucket;
+    }
+
+    /**
+     * @return the column names of the data files, e.g. Bucket, Key, Size, LastModifiedDate.
+     */
+    public String[] getColumns() {
+
+        String[] columns = fileSchema.split(",");
+        for(int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim();
+        }
+        return columns;
+    }
+
+    /**
+     * @return when the report was created in milliseconds since the epoch, or 0 if the manifest does not say.
+     */
+    public long getCreationTime() {
+
+        try {
+            return creationTimestamp == null ? 0 : Long.parseLong(creationTimestamp);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+    /**
+     * Find the downloaded data files. A data file is looked for under its full key, under the path of its key
+     * below the report's directory, and by its name alone, relative to the directory of the manifest.
+     *
+     * @throws IOException if a data file cannot be found.
+     */
+    public List<File> findDataFiles(File manifest) throws IOException {
+
+        File directory = manifest.getAbsoluteFile().getParentFile();
+        List<File> dataFiles = new ArrayList<>(files.size());
+        for(DataFile dataFile : files) {
+            String key = dataFile.key;
+            String name = key.substring(key.lastIndexOf('/') + 1);
+            int filesDirectory = key.lastIndexOf("/files/");
+            File[] candidates = {
+                    new File(directory, key),
+                    new File(directory, filesDirectory < 0 ? name : key.substring(filesDirectory + 1)),
+                    new File(new File(directory, "data"), name),
+                    new File(directory, name)
+            };
+            File found = null;
+            for(File candidate : candidates) {
+                if(candidate.isFile()) {
+                    found = candidate;
+                    break;
+                }
+            }
+            if(found == null) {
+                throw new IOException("data file " + name + " of the manifest was not found next to " + manifest);
+            }
+            dataFiles.add(found);
+        }
+        return dataFiles;
+    }
+
+    private static class DataFile {
+        private String key;
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A sorted, read only set of keys with their sizes and last modified times, for commands that must hold
+ * millions of keys in memory. Keys are front coded in blocks of {@value #BLOCK_SIZE}: the first key of a block
+ * is stored whole and every other key as the number of leading bytes it shares with the key before it plus
+ * the bytes that differ, so keys such as {@code tenant/2018/06/14/...} cost little more than their last path
+ * element. Blocks are packed into 1MB {@code byte[]} pages and sizes and times are kept in primitive arrays,
+ * which leaves a handful of large objects for the garbage collector instead of several per key.
+ * <p>
+ * A key is found with a binary search over the first keys of the blocks followed by a scan of one block, and
+ * a {@link Cursor} reads keys in order while decoding each block once.
+ *
+ * @author jsvede
+ */
+public class CompactKeyStore {
+
+    static final int BLOCK_SIZE = 16;
+
+    private static final int PAGE_SIZE = 1 << 20;
+
+    private static final int PAGE_KEYS = 1000;
+
+    private final byte[][] pages;
+
+    /**
+     * The page of each block in the upper 32 bits and its offset within the page in the lower ones.
+     */
+    private final long[] blocks;
+
+    private final int count;
+
+    private final long[] sizes;
+
+    /**
+     * Last modified times in seconds since the epoch, read as unsigned.
+     */
+    private final int[] modified;
+
+    private CompactKeyStore(byte[][] pages, long[] blocks, int count, long[] sizes, int[] modified) {
+        this.pages = pages;
+        this.blocks = blocks;
+        this.count = count;
+        this.sizes = sizes;
+        this.modified = modified;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getKey(int index) {
+
+        Cursor cursor = new Cursor(index);
+        cursor.next();
+        return cursor.getKey();
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * @return the last modified time in milliseconds since the epoch, to the second.
+     */
+    public long getLastModified(int index) {
+        return (modified[index] & 0xFFFFFFFFL) * 1000L;
+    }
+
+    /**
+     * @return the position of the first key that is not before {@code key}; {@link #size()} if there is none.
+     */
+    public int lowerBound(String key) {
+
+        byte[] target = key.getBytes(StandardCharsets.UTF_8);
+
+        // the last block whose first key is before the target holds the answer, or it starts the next block
+        int low = 0;
+        int high = blocks.length - 1;
+        int block = -1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            if(compareFirstKey(middle, target) < 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if(block < 0) {
+            return 0;
+        }
+
+        Cursor cursor = new Cursor(block * BLOCK_SIZE);
+        while(cursor.next() && cursor.index < (block + 1) * BLOCK_SIZE) {
+            if(compare(cursor.key, cursor.keyLength, target) >= 0) {
+                return cursor.index;
+            }
+        }
+        return Math.min(count, (block + 1) * BLOCK_SIZE);
+    }
+
+    /**
+     * @return the position of {@code key}, or -1 if it is not in the store.
+     */
+    public int indexOf(String key) {
+
+        int index = lowerBound(key);
+        return index < count && getKey(index).equals(key) ? index : -1;
+    }
+
+    /**
+     * @return a cursor positioned before the key at {@code index}.
+     */
+    public Cursor cursor(int index) {
+        return new Cursor(index);
+    }
+
+    /**
+     * @return the keys under {@code prefix} as listing pages of up to 1000 summaries for {@code bucketName}.
+     */
+    public ObjectPages pages(final String bucketName, String prefix) {
+
+        final byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        final Cursor cursor = new Cursor(lowerBound(prefix));
+        return new ObjectPages() {
+
+            private boolean more = cursor.next() && cursor.startsWith(prefixBytes);
+
+            @Override
+            public List<S3ObjectSummary> nextSummaries() {
+
+                if(!more) {
+                    return null;
+                }
+                List<S3ObjectSummary> page = new ArrayList<>(PAGE_KEYS);
+                while(more && page.size() < PAGE_KEYS) {
+                    S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setBucketName(bucketName);
+                    summary.setKey(cursor.getKey());
+                    summary.setSize(cursor.getSize());
+                    summary.setLastModified(new Date(cursor.getLastModified()));
+                    page.add(summary);
+                    more = cursor.next() && cursor.startsWith(prefixBytes);
+                }
+                return page;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /**
+     * @return the approximate number of bytes of heap the store occupies.
+     */
+    public long getMemoryBytes() {
+
+        long bytes = 16L * 4 + 16 + 8L * pages.length;
+        for(byte[] page : pages) {
+            bytes += 16 + page.length;
+        }
+        return bytes + 16 + 8L * blocks.length + 16 + 8L * sizes.length + 16 + 4L * modified.length;
+    }
+
+    private int compareFirstKey(int block, byte[] target) {
+
+        byte[] page = pages[(int) (blocks[block] >>> 32)];
+        int position = (int) blocks[block];
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = page[position++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+
+        int common = Math.min(length, target.length);
+        for(int i = 0; i < common; i++) {
+            int difference = (page[position + i] & 0xFF) - (target[i] & 0xFF);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return length - target.length;
+    }
+
+    private static int compare(byte[] key, int keyLength, byte[] target) {
+
+        int common = Math.min(keyLength, target.length);
+        for(int i = 0; i < common; i++) {
+            int difference = (key[i] & 0xFF) - (target[i] & 0xFF);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return keyLength - target.length;
+    }
+
+    /**
+     * Reads the keys in order from a position, decoding each key from the one before it.
+     */
+    public class Cursor {
+
+        private byte[] key = new byte[256];
+
+        private int keyLength;
+
+        private int index;
+
+        private byte[] page;
+
+        private int position;
+
+        private Cursor(int start) {
+
+            int block = start / BLOCK_SIZE;
+            index = block * BLOCK_SIZE - 1;
+            // skip the keys of the block before the start
+            while(index < start - 1 && next()) {
+            }
+        }
+
+        /**
+         * Move to the next key.
+         *
+         * @return false when there are no more keys.
+         */
+        public boolean next() {
+
+            int next = index + 1;
+            if(next >= count) {
+                index = count;
+                return false;
+            }
+            if(next % BLOCK_SIZE == 0) {
+                long location = blocks[next / BLOCK_SIZE];
+                page = pages[(int) (location >>> 32)];
+                position = (int) location;
+                keyLength = 0;
+                append(readVarInt());
+            } else {
+                keyLength = readVarInt();
+                append(readVarInt());
+            }
+            index = next;
+            return true;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getKey() {
+            return new String(key, 0, keyLength, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return true if the current key starts with the UTF-8 bytes of a prefix.
+         */
+        public boolean startsWith(byte[] prefix) {
+
+            if(keyLength < prefix.length) {
+                return false;
+            }
+            for(int i = 0; i < prefix.length; i++) {
+                if(key[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public long getSize() {
+            return sizes[index];
+        }
+
+        public long getLastModified() {
+            return CompactKeyStore.this.getLastModified(index);
+        }
+
+        private void append(int length) {
+
+            if(keyLength + length > key.length) {
+                key = Arrays.copyOf(key, Math.max(key.length * 2, keyLength + length));
+            }
+            System.arraycopy(page, position, key, keyLength, length);
+            keyLength += length;
+            position += length;
+        }
+
+        private int readVarInt() {
+
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = page[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while(b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Collects keys in key order and packs them into a {@link CompactKeyStore}.
+     */
+    public static class Builder {
+
+        private final List<byte[]> pages = new ArrayList<>();
+
+        private byte[] page = new byte[PAGE_SIZE];
+
+        private int pagePosition;
+
+        private byte[] block = new byte[4096];
+
+        private int blockPosition;
+
+        private long[] blocks = new long[1024];
+
+        private byte[] previous = new byte[0];
+
+        private int count;
+
+        private long[] sizes = new long[1024];
+
+        private int[] modified = new int[1024];
+
+        public Builder() {}
+
+        /**
+         * @param lastModified - milliseconds since the epoch; kept to the second.
+         * @throws IllegalArgumentException if the key is not after the previous key.
+         */
+        public Builder add(String key, long size, long lastModified) {
+
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int common = Math.min(previous.length, bytes.length);
+            while(shared < common && previous[shared] == bytes[shared]) {
+                shared++;
+            }
+            if(count > 0 && (shared == bytes.length ||
+                             (shared < previous.length && (previous[shared] & 0xFF) > (bytes[shared] & 0xFF)))) {
+                throw new IllegalArgumentException("keys must be added in key order: " + key);
+            }
+
+            if(count % BLOCK_SIZE == 0) {
+                flushBlock();
+                writeVarInt(bytes.length);
+                writeBytes(bytes, 0, bytes.length);
+            } else {
+                writeVarInt(shared);
+                writeVarInt(bytes.length - shared);
+                writeBytes(bytes, shared, bytes.length - shared);
+            }
+            previous = bytes;
+
+            if(count == sizes.length) {
+                sizes = Arrays.copyOf(sizes, count * 2);
+                modified = Arrays.copyOf(modified, count * 2);
+            }
+            sizes[count] = size;
+            modified[count] = (int) (lastModified / 1000L);
+            count++;
+            return this;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public CompactKeyStore build() {
+
+            flushBlock();
+            if(pagePosition > 0) {
+                pages.add(Arrays.copyOf(page, pagePosition));
+            }
+            page = null;
+            int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            return new CompactKeyStore(pages.toArray(new byte[pages.size()][]), Arrays.copyOf(blocks, blockCount),
+                                       count, Arrays.copyOf(sizes, count), Arrays.copyOf(modified, count));
+        }
+
+        /**
+         * Move the block being written into the current page, starting a new page if it does not fit.
+         */
+        private void flushBlock() {
+
+            if(blockPosition == 0) {
+                return;
+            }
+            if(pagePosition + blockPosition > page.length) {
+                pages.add(Arrays.copyOf(page, pagePosition));
+                page = new byte[Math.max(PAGE_SIZE, blockPosition)];
+                pagePosition = 0;
+            }
+            int blockIndex = (count - 1) / BLOCK_SIZE;
+            if(blockIndex == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+            blocks[blockIndex] = ((long) pages.size() << 32) | pagePosition;
+            System.arraycopy(block, 0, page, pagePosition, blockPosition);
+            pagePosition += blockPosition;
+            blockPosition = 0;
+        }
+
+        private void writeVarInt(int value) {
+
+            ensureBlockCapacity(5);
+            while((value & ~0x7F) != 0) {
+                block[blockPosition++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            block[blockPosition++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) {
+
+            ensureBlockCapacity(length);
+            System.arraycopy(bytes, offset, block, blockPosition, length);
+            blockPosition += length;
+        }
+
+        private void ensureBlockCapacity(int length) {
+
+            if(blockPosition + length > block.length) {
+                block = Arrays.copyOf(block, Math.max(block.length * 2, blockPosition + length));
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.util.PrefixCounters;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Adds up the number of objects and bytes below each sub-prefix of a prefix, down to a number of '/' separated
+ * levels, as listing pages stream past.
+ *
+ * @author jsvede
+ */
+public class DiskUsage {
+
+    private final String prefix;
+
+    private final int depth;
+
+    private final PrefixCounters counters = new PrefixCounters();
+
+    private long objectCount;
+
+    private long totalBytes;
+
+    /**
+     * @param depth - the number of levels below {@code prefix} to report; 0 reports only the total.
+     */
+    public DiskUsage(String prefix, int depth) {
+        this.prefix = prefix;
+        this.depth = depth;
+    }
+
+    public void add(List<S3ObjectSummary> page) {
+
+        for(S3ObjectSummary summary : page) {
+            add(summary.getKey(), summary.getSize());
+        }
+    }
+
+    public void add(String key, long size) {
+
+        objectCount++;
+        totalBytes += size;
+        int end = prefix.length();
+        for(int level = 0; level < depth; level++) {
+            int separator = key.indexOf('/', end);
+            if(separator < 0) {
+                break;
+            }
+            end = separator + 1;
+            counters.add(key, end, size);
+        }
+    }
+
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of sub-prefixes counted.
+     */
+    public int getPrefixCount() {
+        return counters.size();
+    }
+
+    /**
+     * Print the size and object count of every sub-prefix in key order, followed by the total.
+     */
+    public void print(PrintStream out) {
+
+        String[] prefixes = counters.getPrefixes();
+        Arrays.sort(prefixes, KeyOrder.COMPARATOR);
+        StringBuilder line = new StringBuilder();
+        for(String subPrefix : prefixes) {
+            printLine(out, line, counters.getBytes(subPrefix), counters.getCount(subPrefix), subPrefix);
+        }
+        printLine(out, line, totalBytes, objectCount, prefix.length() == 0 ? "/" : prefix);
+    }
+
+    private static void printLine(PrintStream out, StringBuilder line, long bytes, long count, String name) {
+
+        line.setLength(0);
+        ListingRenderer.appendSize(line, bytes);
+        pad(line, 12);
+        line.append(count);
+        pad(line, 26);
+        line.append(name);
+        out.println(line);
+    }
+
+    private static void pad(StringBuilder line, int column) {
+
+        do {
+            line.append(' ');
+        } while(line.length() < column);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.util.StringPaddingUtil;
+import org.apache.commons.io.FileUtils;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the heap used by a {@link CompactKeyStore} with an {@code ArrayList<S3ObjectSummary>} holding the
+ * same keys, sizes and last modified times, and times lookups and a full scan of the store. Keys look like
+ * {@code tenant-042/2018/06/14/event-00001234.json}: long shared prefixes with a short varying tail.
+ *
+ * @author jsvede
+ */
+public class KeyStoreBenchmark {
+
+    private static final int KEYS_PER_DAY = 2000;
+
+    private static final int LOOKUPS = 1000000;
+
+    private final PrintStream out;
+
+    public KeyStoreBenchmark(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the key at {@code index}; keys are generated in key order.
+     */
+    public static String keyFor(int index) {
+
+        int day = index / KEYS_PER_DAY;
+        StringBuilder key = new StringBuilder(48).append("tenant-");
+        appendPadded(key, day / 3360, 3).append('/');
+        appendPadded(key, 2010 + day / 336 % 10, 4).append('/');
+        appendPadded(key, day / 28 % 12 + 1, 2).append('/');
+        appendPadded(key, day % 28 + 1, 2).append("/event-");
+        return appendPadded(key, index, 8).append(".json").toString();
+    }
+
+    private static StringBuilder appendPadded(StringBuilder sb, int value, int width) {
+
+        String digits = Integer.toString(value);
+        for(int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits);
+    }
+
+    public void run(int keyCount) {
+
+        out.println("holding " + keyCount + " keys, e.g. " + keyFor(keyCount / 2) + "; max heap " +
+                    FileUtils.byteCountToDisplaySize(Runtime.getRuntime().maxMemory()));
+        out.println(StringPaddingUtil.pad("container", 28) + StringPaddingUtil.pad("heap", 12) +
+                    StringPaddingUtil.pad("bytes/key", 12) + "build seconds");
+
+        long before = usedMemory();
+        long start = System.nanoTime();
+        CompactKeyStore.Builder builder = new CompactKeyStore.Builder();
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < keyCount; i++) {
+            builder.add(keyFor(i), i, now);
+        }
+        CompactKeyStore store = builder.build();
+        builder = null;
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+        report("CompactKeyStore", usedMemory() - before, keyCount, buildSeconds);
+
+        Random random = new Random(1);
+        start = System.nanoTime();
+        int found = 0;
+        for(int i = 0; i < LOOKUPS; i++) {
+            if(store.indexOf(keyFor(random.nextInt(keyCount))) >= 0) {
+                found++;
+            }
+        }
+        out.println(String.format("  %d lookups in %.2fs, %d found", LOOKUPS, (System.nanoTime() - start) / 1e9,
+                                  found));
+        start = System.nanoTime();
+        long bytes = 0;
+        CompactKeyStore.Cursor cursor = store.cursor(0);
+        while(cursor.next()) {
+            bytes += cursor.getKey().length() + cursor.getSize();
+        }
+        out.println(String.format("  scanned every key in %.2fs (%d)", (System.nanoTime() - start) / 1e9,
+                                  bytes > 0 ? store.size() : 0));
+        store = null;
+
+        before = usedMemory();
+        start = System.nanoTime();
+        List<S3ObjectSummary> summaries = new ArrayList<>();
+        try {
+            for(int i = 0; i < keyCount; i++) {
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setKey(keyFor(i));
+                summary.setSize(i);
+                summary.setLastModified(new Date(now));
+                summaries.add(summary);
+            }
+            report("ArrayList<S3ObjectSummary>", usedMemory() - before, keyCount, (System.nanoTime() - start) / 1e9);
+        } catch (OutOfMemoryError oome) {
+            int held = summaries.size();
+            summaries = null;
+            out.println(StringPaddingUtil.pad("ArrayList<S3ObjectSummary>", 28) + "ran out of heap after " + held +
+                        " keys");
+        }
+    }
+
+    private void report(String container, long bytes, int keyCount, double seconds) {
+
+        out.println(StringPaddingUtil.pad(container, 28) +
+                    StringPaddingUtil.pad(FileUtils.byteCountToDisplaySize(bytes), 12) +
+                    StringPaddingUtil.pad(String.valueOf(bytes / Math.max(1, keyCount)), 12) +
+                    String.format("%.2f", seconds));
+    }
+
+    private static long usedMemory() {
+
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
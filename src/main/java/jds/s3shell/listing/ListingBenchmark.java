@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import jds.s3shell.util.StringPaddingUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Compares listing a prefix page by page on the caller's thread with listing it through a prefetching
+ * {@link ListingPaginator}. Pages come from a {@link SimulatedListingClient} with a fixed request latency;
+ * each page is rendered as ls would and then held for a fixed time standing in for a slow terminal or
+ * per-key work such as deletes.
+ *
+ * @author jsvede
+ */
+public class ListingBenchmark {
+
+    private static final int[] DEPTHS = {0, 1, 2, 4};
+
+    private final PrintStream out;
+
+    public ListingBenchmark(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @param keyCount - the number of keys to list.
+     * @param latencyMillis - the simulated time of one page request.
+     * @param consumerMillis - the simulated time spent on each page by the command.
+     */
+    public void run(int keyCount, long latencyMillis, long consumerMillis) throws IOException, InterruptedException {
+
+        out.println("listing " + keyCount + " keys; " + latencyMillis + "ms per request, " + consumerMillis +
+                    "ms per page of processing");
+        out.println(StringPaddingUtil.pad("prefetch", 12) + StringPaddingUtil.pad("seconds", 12) +
+                    StringPaddingUtil.pad("keys/s", 12) + "speedup");
+
+        double baseline = 0;
+        for(int depth : DEPTHS) {
+            SimulatedListingClient client = new SimulatedListingClient(keyCount, latencyMillis);
+            ListingRenderer renderer = new ListingRenderer(new DiscardingOutputStream());
+
+            long start = System.nanoTime();
+            try(ListingPaginator pages = new ListingPaginator(client, new ListObjectsV2Request()
+                    .withBucketName("benchmark"), depth)) {
+                ListObjectsV2Result page;
+                while((page = pages.nextPage()) != null) {
+                    renderer.renderPage(page.getObjectSummaries());
+                    Thread.sleep(consumerMillis);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if(depth == 0) {
+                baseline = seconds;
+            }
+            out.println(StringPaddingUtil.pad(depth == 0 ? "none" : String.valueOf(depth), 12) +
+                        StringPaddingUtil.pad(String.format("%.2f", seconds), 12) +
+                        StringPaddingUtil.pad(String.valueOf((long) (renderer.getCount() / seconds)), 12) +
+                        String.format("%.2fx", baseline / seconds));
+        }
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {}
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.transfer.TransferSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps recent listings in memory so that moving between the same few prefixes does not list them again.
+ * Listings are keyed by bucket alias, prefix and delimiter, expire after listing.cacheTtl seconds and the least
+ * recently used ones are evicted once the cache holds more than listing.cacheKeys keys and prefixes. Commands
+ * that change the bucket invalidate the listings that could include the keys they changed.
+ *
+ * @author jsvede
+ */
+@Component
+public class ListingCache {
+
+    @Autowired
+    private TransferSettings transferSettings;
+
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedKeys;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Incremented by every invalidation, so that a listing which was running at the time is not cached.
+     */
+    private long generation;
+
+    public ListingCache() {}
+
+    /**
+     * @return the cached objects under {@code prefix}, or null if they are not cached.
+     */
+    public synchronized ObjectPages getObjects(String alias, String prefix) {
+
+        Listing listing = lookup(alias, prefix, "");
+        if(listing == null) {
+            return null;
+        }
+        final Iterator<List<S3ObjectSummary>> pages = listing.pages.iterator();
+        return new ObjectPages() {
+
+            @Override
+            public List<S3ObjectSummary> nextSummaries() {
+                return pages.hasNext() ? pages.next() : null;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /**
+     * @return {@code source}, caching its pages once they have all been read.
+     */
+    public synchronized ObjectPages recordObjects(final String alias, final String prefix, final ObjectPages source) {
+
+        if(transferSettings.getListingCacheTtl() == 0) {
+            return source;
+        }
+        final long started = generation;
+        return new ObjectPages() {
+
+            private List<List<S3ObjectSummary>> pages = new ArrayList<>();
+
+            private long weight;
+
+            @Override
+            public List<S3ObjectSummary> nextSummaries() {
+
+                List<S3ObjectSummary> page = source.nextSummaries();
+                if(pages != null) {
+                    if(page == null) {
+                        store(new Listing(alias, prefix, "", pages, null, weight), started);
+                        pages = null;
+                    } else if((weight += page.size()) > transferSettings.getListingCacheKeys()) {
+                        pages = null;
+                    } else {
+                        pages.add(page);
+                    }
+                }
+                return page;
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+
+    /**
+     * @return the cached common prefixes under {@code prefix} for {@code delimiter}, or null if they are not
+     *         cached.
+     */
+    public synchronized List<String> getPrefixes(String alias, String prefix, String delimiter) {
+
+        Listing listing = lookup(alias, prefix, delimiter);
+        return listing == null ? null : listing.prefixes;
+    }
+
+    /**
+     * @return a token to pass to {@link #putPrefixes} once the listing has finished.
+     */
+    public synchronized long startListing() {
+        return generation;
+    }
+
+    public synchronized void putPrefixes(String alias, String prefix, String delimiter, List<String> prefixes,
+                                         long token) {
+
+        if(transferSettings.getListingCacheTtl() > 0 && prefixes.size() <= transferSettings.getListingCacheKeys()) {
+            store(new Listing(alias, prefix, delimiter, null, prefixes, prefixes.size()), token);
+        }
+    }
+
+    /**
+     * Drop the listings of {@code alias} that could contain keys starting with {@code keyOrPrefix}.
+     */
+    public synchronized void invalidate(String alias, String keyOrPrefix) {
+
+        generation++;
+        Iterator<Listing> iterator = listings.values().iterator();
+        while(iterator.hasNext()) {
+            Listing listing = iterator.next();
+            if(listing.alias.equals(alias) &&
+               (keyOrPrefix.startsWith(listing.prefix) || listing.prefix.startsWith(keyOrPrefix))) {
+                iterator.remove();
+                cachedKeys -= listing.weight;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+
+        generation++;
+        listings.clear();
+        cachedKeys = 0;
+    }
+
+    /**
+     * @return the hit, miss and eviction counts and the size of the cache.
+     */
+    public synchronized String describe() {
+
+        long lookups = hits + misses;
+        return "listing cache: " + hits + " hits, " + misses + " misses" +
+               (lookups == 0 ? "" : " (" + (hits * 100 / lookups) + "% hit rate)") + ", " + evictions +
+               " evictions, " + listings.size() + " listings holding " + cachedKeys + " keys and prefixes, ttl " +
+               transferSettings.getListingCacheTtl() + "s";
+    }
+
+    private Listing lookup(String alias, String prefix, String delimiter) {
+
+        if(transferSettings.getListingCacheTtl() == 0) {
+            return null;
+        }
+        String key = key(alias, prefix, delimiter);
+        Listing listing = listings.get(key);
+        if(listing != null && System.currentTimeMillis() - listing.created >
+                              transferSettings.getListingCacheTtl() * 1000L) {
+            listings.remove(key);
+            cachedKeys -= listing.weight;
+            listing = null;
+        }
+        if(listing == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return listing;
+    }
+
+    private synchronized void store(Listing listing, long startedGeneration) {
+
+        if(startedGeneration != generation) {
+            return;
+        }
+        Listing replaced = listings.put(key(listing.alias, listing.prefix, listing.delimiter), listing);
+        if(replaced != null) {
+            cachedKeys -= replaced.weight;
+        }
+        cachedKeys += listing.weight;
+
+        Iterator<Map.Entry<String, Listing>> eldest = listings.entrySet().iterator();
+        while(cachedKeys > transferSettings.getListingCacheKeys() && eldest.hasNext()) {
+            Listing evicted = eldest.next().getValue();
+            eldest.remove();
+            cachedKeys -= evicted.weight;
+            evictions++;
+        }
+    }
+
+    private static String key(String alias, String prefix, String delimiter) {
+        return alias + '\u0000' + prefix + '\u0000' + delimiter;
+    }
+
+    private static class Listing {
+
+        private final String alias;
+
+        private final String prefix;
+
+        private final String delimiter;
+
+        private final List<List<S3ObjectSummary>> pages;
+
+        private final List<String> prefixes;
+
+        private final long weight;
+
+        private final long created = System.currentTimeMillis();
+
+        Listing(String alias, String prefix, String delimiter, List<List<S3ObjectSummary>> pages,
+                List<String> prefixes, long weight) {
+            this.alias = alias;
+            this.prefix = prefix;
+            this.delimiter = delimiter;
+            this.pages = pages;
+            this.prefixes = prefixes;
+            this.weight = weight;
+        }
+    }
+}
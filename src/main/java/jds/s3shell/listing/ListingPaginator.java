@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pages through a ListObjectsV2 listing while the caller is still working on earlier pages. A background
+ * thread follows the continuation tokens and keeps up to {@code prefetchDepth} pages ready, so the time
+ * spent waiting on S3 overlaps with the time spent printing, matching or deleting. With a depth of 0 the
+ * pages are requested on the caller's thread when they are needed.
+ * <p>
+ * Pages can be taken one at a time with {@link #nextPage()}, which also exposes common prefixes, or the
+ * listing can be iterated as object summaries. Close the paginator if the listing is abandoned early so
+ * the background thread stops.
+ *
+ * @author jsvede
+ */
+public class ListingPaginator implements Iterable<S3ObjectSummary>, ObjectPages {
+
+    private static final ListObjectsV2Result END = new ListObjectsV2Result();
+
+    private final AmazonS3 client;
+
+    private final ListObjectsV2Request request;
+
+    private final BlockingQueue<Object> pages;
+
+    private final Thread fetcher;
+
+    private volatile boolean closed;
+
+    private boolean finished;
+
+    private long pageCount;
+
+    /**
+     * @param request - the first request; its continuation token is advanced as pages are fetched.
+     * @param prefetchDepth - the number of pages to fetch ahead of the caller; 0 to fetch on demand.
+     */
+    public ListingPaginator(AmazonS3 client, ListObjectsV2Request request, int prefetchDepth) {
+
+        this.client = client;
+        this.request = request;
+        if(prefetchDepth <= 0) {
+            this.pages = null;
+            this.fetcher = null;
+            return;
+        }
+        this.pages = new ArrayBlockingQueue<>(prefetchDepth);
+        this.fetcher = new Thread(this::fetchAll, "s3shell-list");
+        this.fetcher.setDaemon(true);
+        this.fetcher.start();
+    }
+
+    /**
+     * @return the next page, or {@code null} once the listing is complete.
+     * @throws RuntimeException the failure of the request that fetched the page, typically an
+     * {@code AmazonClientException}.
+     */
+    public ListObjectsV2Result nextPage() {
+
+        if(finished) {
+            return null;
+        }
+        if(pages == null) {
+            ListObjectsV2Result page = client.listObjectsV2(request);
+            advance(page);
+            return page;
+        }
+
+        Object page;
+        try {
+            page = pages.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("interrupted while waiting for a listing page", ie);
+        }
+        if(page == END) {
+            finished = true;
+            return null;
+        }
+        if(page instanceof RuntimeException) {
+            finished = true;
+            throw (RuntimeException) page;
+        }
+        pageCount++;
+        return (ListObjectsV2Result) page;
+    }
+
+    @Override
+    public List<S3ObjectSummary> nextSummaries() {
+
+        ListObjectsV2Result page = nextPage();
+        return page == null ? null : page.getObjectSummaries();
+    }
+
+    /**
+     * @return the number of pages handed to the caller so far.
+     */
+    public long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the object summaries of every remaining page, fetched lazily.
+     */
+    @Override
+    public Iterator<S3ObjectSummary> iterator() {
+
+        return new Iterator<S3ObjectSummary>() {
+
+            private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+
+                while(!page.hasNext()) {
+                    ListObjectsV2Result next = nextPage();
+                    if(next == null) {
+                        return false;
+                    }
+                    page = next.getObjectSummaries().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public S3ObjectSummary next() {
+
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+
+    /**
+     * Stop fetching pages that have not been requested yet.
+     */
+    @Override
+    public void close() {
+
+        finished = true;
+        closed = true;
+        if(fetcher != null) {
+            fetcher.interrupt();
+        }
+    }
+
+    private void advance(ListObjectsV2Result page) {
+
+        pageCount++;
+        if(page.isTruncated()) {
+            request.setContinuationToken(page.getNextContinuationToken());
+        } else {
+            finished = true;
+        }
+    }
+
+    private void fetchAll() {
+
+        try {
+            while(true) {
+                ListObjectsV2Result page = client.listObjectsV2(request);
+                pages.put(page);
+                if(!page.isTruncated()) {
+                    break;
+                }
+                request.setContinuationToken(page.getNextContinuationToken());
+            }
+            pages.put(END);
+        } catch (InterruptedException ie) {
+            // closed by the caller
+        } catch (RuntimeException re) {
+            if(closed) {
+                return;
+            }
+            try {
+                pages.put(re);
+            } catch (InterruptedException ie) {
+                // closed by the caller
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes listing lines in the form {@code <last modified> - <size> - <key>} for listings with millions of
+ * keys. Lines are built in one reused buffer and written to a large buffered writer that is flushed once
+ * per page, the folder marker pattern is compiled once, and neighbouring keys with the same modification
+ * second share one formatted date.
+ * <p>
+ * Sizes are formatted the same way as {@code FileUtils.byteCountToDisplaySize} and dates the same way as
+ * {@code Date.toString()}, so the output matches what ls has always printed.
+ *
+ * @author jsvede
+ */
+public class ListingRenderer {
+
+    private static final Pattern FOLDER_MARKER = Pattern.compile("_\\$folder\\$");
+
+    private static final String FOLDER_MARKER_TEXT = "_$folder$";
+
+    private static final int WRITER_BUFFER_SIZE = 256 * 1024;
+
+    private static final String[] UNITS = {" bytes", " KB", " MB", " GB", " TB", " PB", " EB"};
+
+    private final Writer writer;
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    private final Matcher folderMatcher = FOLDER_MARKER.matcher("");
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+    private final long start = System.nanoTime();
+
+    private long lastSecond = Long.MIN_VALUE;
+
+    private String lastDate;
+
+    private long count;
+
+    /**
+     * @param out - the stream to write to; it is flushed but never closed.
+     */
+    public ListingRenderer(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out), WRITER_BUFFER_SIZE);
+    }
+
+    /**
+     * Render one page of a listing and flush it.
+     */
+    public void renderPage(List<S3ObjectSummary> summaries) throws IOException {
+
+        for(S3ObjectSummary summary : summaries) {
+            render(summary);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Render a single line; it is written out by the next {@link #flush()} or when the buffer fills.
+     */
+    public void render(S3ObjectSummary summary) throws IOException {
+
+        line.setLength(0);
+        line.append(formatDate(summary.getLastModified())).append(" - ");
+        appendSize(line, summary.getSize());
+        line.append(" - ");
+
+        String key = summary.getKey();
+        if(key.indexOf(FOLDER_MARKER_TEXT) < 0) {
+            line.append(key);
+        } else {
+            line.append(folderMatcher.reset(key).replaceAll("/"));
+        }
+        line.append('\n');
+
+        writer.append(line);
+        count++;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * @return the number of lines rendered.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the rate at which lines were rendered since this renderer was created.
+     */
+    public long getKeysPerSecond() {
+
+        long nanos = Math.max(1, System.nanoTime() - start);
+        return (long) (count * 1e9 / nanos);
+    }
+
+    /**
+     * @return the elapsed seconds since this renderer was created.
+     */
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private String formatDate(Date date) {
+
+        long second = date.getTime() / 1000;
+        if(second != lastSecond) {
+            lastDate = dateFormat.format(date);
+            lastSecond = second;
+        }
+        return lastDate;
+    }
+
+    /**
+     * Append {@code size} in the largest unit it has at least one of, rounding down, as
+     * {@code FileUtils.byteCountToDisplaySize} does.
+     */
+    static void appendSize(StringBuilder sb, long size) {
+
+        int unit = 0;
+        long value = size;
+        while(unit < UNITS.length - 1 && value >= 1024) {
+            value /= 1024;
+            unit++;
+        }
+        sb.append(value).append(UNITS[unit]);
+    }
+}
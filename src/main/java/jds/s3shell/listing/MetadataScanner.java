@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.gson.Gson;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the metadata of every object in a listing with HEAD requests, {@code concurrency} of them in flight,
+ * and writes one row per object as a table or as JSON lines. Rows are written in key order as soon as the
+ * object and every object before it have been fetched, so output starts with the first page.
+ *
+ * @author jsvede
+ */
+public class MetadataScanner implements Closeable {
+
+    // HEADs submitted ahead of the row being written, per thread, so a slow HEAD does not idle the others
+    private static final int WINDOW_PER_THREAD = 4;
+
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+    private static final String HEADER = pad("LAST MODIFIED", 22) + pad("SIZE", 14) + pad("STORAGE", 14) +
+                                         pad("ENCRYPTION", 12) + pad("CONTENT TYPE", 26) + "KEY\n";
+
+    private final AmazonS3 client;
+
+    private final String bucketName;
+
+    private final int concurrency;
+
+    private final Gson gson;
+
+    private final Writer writer;
+
+    private final ExecutorService pool;
+
+    private long count;
+
+    private long failed;
+
+    /**
+     * @param gson - writes the rows as JSON lines, or {@code null} to write them as a table.
+     * @param out - where the rows are written.
+     */
+    public MetadataScanner(AmazonS3 client, String bucketName, int concurrency, Gson gson, OutputStream out) {
+
+        this.client = client;
+        this.bucketName = bucketName;
+        this.concurrency = Math.max(1, concurrency);
+        this.gson = gson;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "s3shell-stat-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Fetch and write the metadata of every object in {@code pages}.
+     */
+    public void scan(ObjectPages pages) throws IOException, InterruptedException {
+
+        Deque<Future<Map<String, Object>>> window = new ArrayDeque<>();
+        int windowSize = concurrency * WINDOW_PER_THREAD;
+        if(gson == null) {
+            writer.write(HEADER);
+        }
+        try {
+            List<S3ObjectSummary> page;
+            while((page = pages.nextSummaries()) != null) {
+                for(final S3ObjectSummary summary : page) {
+                    window.add(pool.submit(() -> head(summary.getKey())));
+                    while(window.size() >= windowSize || (!window.isEmpty() && window.peek().isDone())) {
+                        write(window.poll());
+                    }
+                }
+                writer.flush();
+            }
+            while(!window.isEmpty()) {
+                write(window.poll());
+            }
+        } finally {
+            writer.flush();
+            pages.close();
+        }
+    }
+
+    /**
+     * @return every header of the object at {@code key}, its user metadata included, one per line or as JSON.
+     */
+    public String describe(String key) {
+
+        ObjectMetadata metadata = client.getObjectMetadata(bucketName, key);
+        Map<String, Object> fields = new TreeMap<>(metadata.getRawMetadata());
+        for(Map.Entry<String, String> entry : metadata.getUserMetadata().entrySet()) {
+            fields.put("x-amz-meta-" + entry.getKey(), entry.getValue());
+        }
+        if(gson != null) {
+            Map<String, Object> object = new LinkedHashMap<>();
+            object.put("key", key);
+            object.putAll(fields);
+            return gson.toJson(object);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Key: ").append(key);
+        for(Map.Entry<String, Object> field : fields.entrySet()) {
+            sb.append("\n").append(field.getKey()).append(": ").append(field.getValue());
+        }
+        return sb.toString();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of objects whose HEAD failed, for example because they were removed after being listed.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private Map<String, Object> head(String key) {
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("key", key);
+        try {
+            ObjectMetadata metadata = client.getObjectMetadata(bucketName, key);
+            row.put("size", metadata.getContentLength());
+            row.put("lastModified", metadata.getLastModified() == null ? null : metadata.getLastModified().toInstant().toString());
+            row.put("contentType", metadata.getContentType());
+            row.put("storageClass", metadata.getStorageClass() == null ? "STANDARD" : metadata.getStorageClass());
+            row.put("encryption", metadata.getSSEAlgorithm());
+            row.put("kmsKeyId", metadata.getSSEAwsKmsKeyId());
+            row.put("etag", metadata.getETag());
+            row.put("userMetadata", metadata.getUserMetadata());
+        } catch (AmazonServiceException ase) {
+            row.put("error", ase.getStatusCode() + " " + ase.getErrorMessage());
+        } catch (AmazonClientException ace) {
+            row.put("error", ace.getMessage());
+        }
+        return row;
+    }
+
+    private void write(Future<Map<String, Object>> future) throws IOException, InterruptedException {
+
+        Map<String, Object> row;
+        try {
+            row = future.get();
+        } catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+        count++;
+        if(row.containsKey("error")) {
+            failed++;
+        }
+        if(gson != null) {
+            writer.write(gson.toJson(row));
+            writer.write('\n');
+            return;
+        }
+
+        StringBuilder line = new StringBuilder(160);
+        if(row.containsKey("error")) {
+            line.append(pad("-", 22)).append(pad("-", 14)).append(pad("-", 14)).append(pad("-", 12))
+                .append(pad("-", 26)).append(row.get("key")).append("  error: ").append(row.get("error"));
+        } else {
+            line.append(pad(String.valueOf(row.get("lastModified")), 22));
+            StringBuilder size = new StringBuilder();
+            ListingRenderer.appendSize(size, (Long) row.get("size"));
+            line.append(pad(size.toString(), 14))
+                .append(pad(String.valueOf(row.get("storageClass")), 14))
+                .append(pad(row.get("encryption") == null ? "-" : String.valueOf(row.get("encryption")), 12))
+                .append(pad(row.get("contentType") == null ? "-" : String.valueOf(row.get("contentType")), 26))
+                .append(row.get("key"));
+            @SuppressWarnings("unchecked")
+            Map<String, String> userMetadata = (Map<String, String>) row.get("userMetadata");
+            for(Map.Entry<String, String> entry : userMetadata.entrySet()) {
+                line.append("  ").append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        }
+        writer.write(line.append('\n').toString());
+    }
+
+    private static String pad(String value, int width) {
+
+        StringBuilder sb = new StringBuilder(Math.max(width, value.length() + 1)).append(value);
+        do {
+            sb.append(' ');
+        } while(sb.length() < width);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches listing pages against a pattern on a pool of worker threads while the next pages are listed, and
+ * renders the matches in listing order as soon as every earlier page has been matched.
+ *
+ * @author jsvede
+ */
+public class PageMatcher implements Closeable {
+
+    private final Pattern pattern;
+
+    private final ListingRenderer renderer;
+
+    private final ExecutorService executor;
+
+    private final int window;
+
+    private final Deque<Future<List<S3ObjectSummary>>> pending = new ArrayDeque<>();
+
+    /**
+     * @param threads - the number of pages matched at once.
+     */
+    public PageMatcher(Pattern pattern, ListingRenderer renderer, int threads) {
+
+        this.pattern = pattern;
+        this.renderer = renderer;
+        this.window = Math.max(1, threads) * 2;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "s3shell-match-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a page for matching, rendering the matches of earlier pages that are ready.
+     */
+    public void accept(final List<S3ObjectSummary> page) throws IOException {
+
+        pending.addLast(executor.submit(() -> match(page)));
+        while(!pending.isEmpty() && (pending.size() > window || pending.peekFirst().isDone())) {
+            renderNext();
+        }
+    }
+
+    /**
+     * Render the matches of every queued page.
+     */
+    public void finish() throws IOException {
+
+        while(!pending.isEmpty()) {
+            renderNext();
+        }
+        renderer.flush();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private List<S3ObjectSummary> match(List<S3ObjectSummary> page) {
+
+        List<S3ObjectSummary> matches = new ArrayList<>();
+        Matcher matcher = pattern.matcher("");
+        for(S3ObjectSummary summary : page) {
+            if(matcher.reset(summary.getKey()).find()) {
+                matches.add(summary);
+            }
+        }
+        return matches;
+    }
+
+    private void renderNext() throws IOException {
+
+        List<S3ObjectSummary> matches;
+        try {
+            matches = pending.removeFirst().get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while matching keys", ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("failed to match keys: " + ee.getCause().getMessage(), ee.getCause());
+        }
+        if(!matches.isEmpty()) {
+            renderer.renderPage(matches);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import java.util.regex.Pattern;
+
+/**
+ * Works out the literal text every match of a regular expression must start with, so that a listing can be
+ * narrowed to that prefix instead of matching every key below the current path.
+ * <p>
+ * Only patterns anchored with a leading {@code ^} have such a prefix: find matches anywhere in the key, so
+ * {@code logs/2024-06-.*\.gz} also matches {@code archive/logs/2024-06-01.gz}. The analysis is conservative;
+ * it stops at the first construct it does not understand and gives up entirely on alternation and flags.
+ *
+ * @author jsvede
+ */
+public class PatternPrefix {
+
+    private static final String METACHARACTERS = ".[]{}()*+?|^$\\";
+
+    private PatternPrefix() {}
+
+    /**
+     * @param pattern - the pattern find matches keys against.
+     * @return the literal prefix of every key the pattern can match, or an empty {@code String} if there is none.
+     */
+    public static String literalPrefix(Pattern pattern) {
+
+        String regex = pattern.pattern();
+        if(pattern.flags() != 0 || !regex.startsWith("^") || hasAlternation(regex)) {
+            return "";
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        int i = 1;
+        while(i < regex.length()) {
+            char c = regex.charAt(i);
+            int next = i + 1;
+            if(c == '\\') {
+                if(next >= regex.length() || Character.isLetterOrDigit(regex.charAt(next))) {
+                    break;
+                }
+                c = regex.charAt(next);
+                next++;
+            } else if(METACHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            if(next < regex.length() && "*?{".indexOf(regex.charAt(next)) >= 0) {
+                break; // the character is optional or repeated an unknown number of times
+            }
+            prefix.append(c);
+            if(next < regex.length() && regex.charAt(next) == '+') {
+                break;
+            }
+            i = next;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * @return true if the pattern contains a {@code |} outside an escape or character class.
+     */
+    private static boolean hasAlternation(String regex) {
+
+        boolean inClass = false;
+        for(int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i++;
+            } else if(c == '[') {
+                inClass = true;
+            } else if(c == ']') {
+                inClass = false;
+            } else if(c == '|' && !inClass) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks the '/' delimited hierarchy below a prefix and prints it as a tree. Every prefix is listed by a task
+ * on a work stealing pool which forks the listings of its sub-prefixes as soon as it has found them, so
+ * siblings are listed concurrently while the pool size caps the number of requests in flight. The tree is
+ * printed in key order from the calling thread, which waits for each prefix in turn and so prints every
+ * subtree as soon as the listings before it have completed.
+ *
+ * @author jsvede
+ */
+public class PrefixTree {
+
+    private static final String DELIMITER = "/";
+
+    private final AmazonS3 client;
+
+    private final String bucketName;
+
+    private final int maxDepth;
+
+    private final ForkJoinPool pool;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private long prefixCount;
+
+    private long objectCount;
+
+    private long totalBytes;
+
+    /**
+     * @param maxDepth - the number of levels below the root to list.
+     * @param concurrency - the maximum number of listings in flight.
+     */
+    public PrefixTree(AmazonS3 client, String bucketName, int maxDepth, int concurrency) {
+
+        this.client = client;
+        this.bucketName = bucketName;
+        this.maxDepth = maxDepth;
+        this.pool = new ForkJoinPool(concurrency);
+    }
+
+    /**
+     * Print the tree below {@code prefix} to {@code out}.
+     */
+    public void print(String prefix, PrintStream out) {
+
+        try {
+            Node root = new Node(prefix, 0);
+            pool.execute(root);
+            root.join();
+            out.println((prefix.length() == 0 ? DELIMITER : prefix) + root.describe());
+            printChildren(root, "", out);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public long getPrefixCount() {
+        return prefixCount;
+    }
+
+    /**
+     * @return the number of objects directly below the prefixes that were listed.
+     */
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    private void printChildren(Node node, String indent, PrintStream out) {
+
+        objectCount += node.objects;
+        totalBytes += node.bytes;
+        for(int i = 0; i < node.children.size(); i++) {
+            Node child = node.children.get(i);
+            boolean last = i == node.children.size() - 1;
+            prefixCount++;
+            if(child.depth < maxDepth) {
+                child.join();
+                out.println(indent + (last ? "`-- " : "|-- ") + child.name() + child.describe());
+                printChildren(child, indent + (last ? "    " : "|   "), out);
+            } else {
+                out.println(indent + (last ? "`-- " : "|-- ") + child.name());
+            }
+        }
+    }
+
+    /**
+     * Lists one prefix and forks the listings of its sub-prefixes.
+     */
+    private class Node extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String prefix;
+
+        private final int depth;
+
+        private final List<Node> children = new ArrayList<>();
+
+        private long objects;
+
+        private long bytes;
+
+        Node(String prefix, int depth) {
+            this.prefix = prefix;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+
+            ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName)
+                                                                     .withPrefix(prefix)
+                                                                     .withDelimiter(DELIMITER);
+            ListObjectsV2Result result;
+            do {
+                requests.incrementAndGet();
+                result = client.listObjectsV2(request);
+                for(S3ObjectSummary summary : result.getObjectSummaries()) {
+                    objects++;
+                    bytes += summary.getSize();
+                }
+                for(String commonPrefix : result.getCommonPrefixes()) {
+                    Node child = new Node(commonPrefix, depth + 1);
+                    children.add(child);
+                    if(child.depth < maxDepth) {
+                        child.fork();
+                    }
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while(result.isTruncated());
+        }
+
+        private String name() {
+            return prefix.substring(prefix.lastIndexOf('/', prefix.length() - 2) + 1);
+        }
+
+        private String describe() {
+
+            if(objects == 0) {
+                return "";
+            }
+            StringBuilder description = new StringBuilder("  (").append(objects)
+                                                                 .append(objects == 1 ? " object, " : " objects, ");
+            ListingRenderer.appendSize(description, bytes);
+            return description.append(')').toString();
+        }
+    }
+}
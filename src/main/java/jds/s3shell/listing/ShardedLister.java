@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists a prefix with several concurrent ListObjectsV2 requests by splitting the key space into shards.
+ * A shard is the range of keys after {@code startAfter} up to and including {@code end}. Listing starts
+ * with one shard for the whole prefix; whenever a shard's page is truncated while workers are idle, the
+ * rest of its range is split at boundaries made from the last key listed, such as {@code logs/2018} ..
+ * {@code logs/2019} .. {@code logs/202}, using the characters seen in the page, and the new shards are
+ * handed to the idle workers. Shards keep splitting until every worker is busy, so no up-front knowledge of
+ * the key distribution is needed.
+ * <p>
+ * In key order mode every shard has a small page queue of its own and the caller reads the shards in key
+ * order; workers always pick the lowest pending shard, which keeps the shard the caller is waiting for
+ * running. Pages buffered ahead of the caller are limited to a fixed number per worker, except for the shard
+ * the caller is reading. In unordered mode pages are delivered as soon as any worker has them.
+ *
+ * @author jsvede
+ */
+public class ShardedLister implements Iterable<S3ObjectSummary>, ObjectPages {
+
+    private static final int PAGES_PER_SHARD = 16;
+
+    private static final int MAX_SPLIT_BOUNDARIES = 64;
+
+    private static final int MAX_SPLIT_DEPTH = 4;
+
+    private static final int MAX_SHARDS = 100000;
+
+    private static final Object END = new Object();
+
+    private final AmazonS3 client;
+
+    private final String bucketName;
+
+    private final String prefix;
+
+    private final int concurrency;
+
+    private final boolean ordered;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger shardCount = new AtomicInteger();
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private final BlockingQueue<Object> unorderedPages;
+
+    private final Deque<Shard> shardOrder = new ArrayDeque<>();
+
+    private final Semaphore readAhead;
+
+    private volatile Shard current;
+
+    private boolean finished;
+
+    private volatile boolean closed;
+
+    /**
+     * @param concurrency - the number of ListObjectsV2 requests in flight at once.
+     * @param ordered - true to return keys in key order, false to return pages as they arrive.
+     */
+    public ShardedLister(AmazonS3 client, String bucketName, String prefix, int concurrency, boolean ordered) {
+
+        this.client = client;
+        this.bucketName = bucketName;
+        this.prefix = prefix == null ? "" : prefix;
+        this.concurrency = Math.max(1, concurrency);
+        this.ordered = ordered;
+        this.unorderedPages = ordered ? null : new ArrayBlockingQueue<>(this.concurrency * PAGES_PER_SHARD);
+        this.readAhead = ordered ? new Semaphore(this.concurrency * PAGES_PER_SHARD) : null;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.concurrency, this.concurrency, 0, TimeUnit.MILLISECONDS,
+                                               new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "s3shell-shard-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        current = new Shard(null, null);
+        start(Collections.singletonList(current));
+    }
+
+    /**
+     * @return the number of shards created so far.
+     */
+    public int getShardCount() {
+        return shardCount.get();
+    }
+
+    @Override
+    public List<S3ObjectSummary> nextSummaries() {
+
+        try {
+            while(!finished) {
+                Object item = ordered ? current.pages.take() : unorderedPages.take();
+                if(item instanceof Page) {
+                    Page page = (Page) item;
+                    if(page.readAhead) {
+                        readAhead.release();
+                    }
+                    return page.summaries;
+                }
+                if(item instanceof List) {
+                    @SuppressWarnings("unchecked")
+                    List<S3ObjectSummary> page = (List<S3ObjectSummary>) item;
+                    return page;
+                }
+                if(item instanceof RuntimeException) {
+                    close();
+                    throw (RuntimeException) item;
+                }
+                if(!ordered) {
+                    finished = true;
+                } else {
+                    List<Shard> children = ((Done) item).children;
+                    for(int i = children.size() - 1; i >= 0; i--) {
+                        shardOrder.addFirst(children.get(i));
+                    }
+                    current = shardOrder.pollFirst();
+                    finished = current == null;
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("interrupted while waiting for a listing page", ie);
+        }
+        close();
+        return null;
+    }
+
+    @Override
+    public Iterator<S3ObjectSummary> iterator() {
+
+        return new Iterator<S3ObjectSummary>() {
+
+            private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+
+                while(!page.hasNext()) {
+                    List<S3ObjectSummary> next = nextSummaries();
+                    if(next == null) {
+                        return false;
+                    }
+                    page = next.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public S3ObjectSummary next() {
+
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    private void start(List<Shard> shards) {
+
+        shardCount.addAndGet(shards.size());
+        outstanding.addAndGet(shards.size());
+        for(Shard shard : shards) {
+            executor.execute(shard);
+        }
+    }
+
+    private boolean shouldSplit() {
+        return executor.getQueue().isEmpty() && executor.getActiveCount() < concurrency && shardCount.get() < MAX_SHARDS;
+    }
+
+    /**
+     * @return split points strictly between {@code last} and {@code end}, in key order.
+     */
+    private List<String> boundaries(String last, String end, List<S3ObjectSummary> page) {
+
+        TreeSet<Character> alphabet = new TreeSet<>();
+        for(S3ObjectSummary summary : page) {
+            String key = summary.getKey();
+            for(int i = prefix.length(); i < key.length(); i++) {
+                char c = key.charAt(i);
+                if(!Character.isSurrogate(c)) {
+                    alphabet.add(c);
+                }
+            }
+        }
+
+        // boundaries near the last key split the keys that are probably next, shallower ones the rest of the range
+        int first = end == null ? prefix.length() : commonPrefixLength(last, end);
+        int deepest = Math.min(last.length(), Math.max(first, commonPrefixLength(page.get(0).getKey(), last)) + MAX_SPLIT_DEPTH);
+        TreeSet<String> boundaries = new TreeSet<>(KeyOrder.COMPARATOR);
+        for(int depth = first; depth < deepest; depth++) {
+            String stem = last.substring(0, depth);
+            for(char c : alphabet.tailSet(last.charAt(depth), false)) {
+                String boundary = stem + c;
+                if(end == null || KeyOrder.compare(boundary, end) < 0) {
+                    boundaries.add(boundary);
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<>(Math.min(boundaries.size(), MAX_SPLIT_BOUNDARIES));
+        for(String boundary : boundaries) {
+            if(result.size() == MAX_SPLIT_BOUNDARIES) {
+                break;
+            }
+            result.add(boundary);
+        }
+        return result;
+    }
+
+    private static int commonPrefixLength(String left, String right) {
+
+        int length = Math.min(left.length(), right.length());
+        int i = 0;
+        while(i < length && left.charAt(i) == right.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * A page delivered in key order mode, which holds a read ahead permit unless it was listed for the shard
+     * being read.
+     */
+    private static class Page {
+
+        private final List<S3ObjectSummary> summaries;
+
+        private final boolean readAhead;
+
+        Page(List<S3ObjectSummary> summaries, boolean readAhead) {
+            this.summaries = summaries;
+            this.readAhead = readAhead;
+        }
+    }
+
+    /**
+     * Marks the end of a shard's pages in key order mode, followed by the shards split from it.
+     */
+    private static class Done {
+
+        private final List<Shard> children;
+
+        Done(List<Shard> children) {
+            this.children = children;
+        }
+    }
+
+    /**
+     * The keys after {@code startAfter} up to and including {@code end}; {@code null} bounds are open.
+     */
+    private class Shard implements Runnable, Comparable<Shard> {
+
+        private final String startAfter;
+
+        private String end;
+
+        private final BlockingQueue<Object> pages = ordered ? new ArrayBlockingQueue<>(PAGES_PER_SHARD) : null;
+
+        private List<Shard> children = new ArrayList<>();
+
+        Shard(String startAfter, String end) {
+            this.startAfter = startAfter;
+            this.end = end;
+        }
+
+        @Override
+        public int compareTo(Shard other) {
+
+            if(startAfter == null || other.startAfter == null) {
+                return startAfter == null ? (other.startAfter == null ? 0 : -1) : 1;
+            }
+            return KeyOrder.compare(startAfter, other.startAfter);
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName)
+                                                                         .withPrefix(prefix)
+                                                                         .withStartAfter(startAfter);
+                while(!closed) {
+                    ListObjectsV2Result result = client.listObjectsV2(request);
+                    List<S3ObjectSummary> page = result.getObjectSummaries();
+                    boolean more = result.isTruncated();
+
+                    int inRange = page.size();
+                    if(end != null) {
+                        while(inRange > 0 && KeyOrder.compare(page.get(inRange - 1).getKey(), end) > 0) {
+                            inRange--;
+                        }
+                    }
+                    if(inRange < page.size()) {
+                        page = new ArrayList<>(page.subList(0, inRange));
+                        more = false;
+                    }
+
+                    if(more && !page.isEmpty() && shouldSplit()) {
+                        split(page);
+                    }
+                    if(!page.isEmpty()) {
+                        deliver(ordered ? new Page(page, awaitReadAhead()) : page);
+                    }
+                    if(!more) {
+                        break;
+                    }
+                    request.setContinuationToken(result.getNextContinuationToken());
+                }
+                if(ordered) {
+                    pages.put(new Done(children));
+                } else if(outstanding.decrementAndGet() == 0) {
+                    unorderedPages.put(END);
+                }
+            } catch (InterruptedException ie) {
+                // the lister was closed
+            } catch (RuntimeException re) {
+                try {
+                    deliver(re);
+                } catch (InterruptedException ie) {
+                    // the lister was closed
+                }
+            }
+        }
+
+        /**
+         * Hand the rest of this shard's range beyond the first new boundary to new shards.
+         */
+        private void split(List<S3ObjectSummary> page) {
+
+            String last = page.get(page.size() - 1).getKey();
+            List<String> boundaries = boundaries(last, end, page);
+            if(boundaries.isEmpty()) {
+                return;
+            }
+
+            List<Shard> created = new ArrayList<>(boundaries.size());
+            for(int i = 0; i < boundaries.size(); i++) {
+                created.add(new Shard(boundaries.get(i), i + 1 < boundaries.size() ? boundaries.get(i + 1) : end));
+            }
+            end = boundaries.get(0);
+
+            // later splits cover keys before the shards created by earlier ones
+            List<Shard> ordering = new ArrayList<>(created);
+            ordering.addAll(children);
+            children = ordering;
+            start(created);
+        }
+
+        /**
+         * Wait until the caller has room for another page read ahead, or has reached this shard.
+         *
+         * @return true if a read ahead permit was taken.
+         */
+        private boolean awaitReadAhead() throws InterruptedException {
+
+            while(this != current) {
+                if(readAhead.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void deliver(Object item) throws InterruptedException {
+
+            if(ordered) {
+                pages.put(item);
+            } else {
+                unorderedPages.put(item);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.listing;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.util.Date;
+
+/**
+ * A stand-in for S3 that serves ListObjectsV2 pages of synthetic keys after a fixed delay, so listing
+ * strategies can be compared without a bucket. Keys are {@code bench/00000000} upwards, in key order.
+ *
+ * @author jsvede
+ */
+public class SimulatedListingClient extends AbstractAmazonS3 {
+
+    private static final String PREFIX = "bench/";
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final int keyCount;
+
+    private final long latencyMillis;
+
+    private final Date lastModified = new Date();
+
+    /**
+     * @param keyCount - the number of keys in the simulated bucket.
+     * @param latencyMillis - the time each page request takes.
+     */
+    public SimulatedListingClient(int keyCount, long latencyMillis) {
+        this.keyCount = keyCount;
+        this.latencyMillis = latencyMillis;
+    }
+
+    public static String keyFor(int index) {
+        return PREFIX + String.format("%08d", index);
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("simulated listing interrupted", ie);
+        }
+
+        String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+        int first = after == null ? 0 : firstIndexAfter(after);
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        int maxKeys = request.getMaxKeys() == null ? PAGE_SIZE : Math.min(PAGE_SIZE, request.getMaxKeys());
+
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(request.getBucketName());
+        int index = first;
+        while(index < keyCount && result.getObjectSummaries().size() < maxKeys) {
+            String key = keyFor(index++);
+            if(KeyOrder.compare(key, prefix) < 0) {
+                continue;
+            }
+            if(!key.startsWith(prefix)) {
+                break;
+            }
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(request.getBucketName());
+            summary.setKey(key);
+            summary.setSize(index * 1024L);
+            summary.setLastModified(lastModified);
+            result.getObjectSummaries().add(summary);
+        }
+        boolean truncated = index < keyCount && keyFor(index).startsWith(prefix);
+        result.setTruncated(truncated);
+        if(truncated) {
+            result.setNextContinuationToken(keyFor(index - 1));
+        }
+        result.setKeyCount(result.getObjectSummaries().size());
+        return result;
+    }
+
+    /**
+     * @return the index of the first key after {@code key}.
+     */
+    private int firstIndexAfter(String key) {
+
+        if(KeyOrder.compare(key, PREFIX) < 0) {
+            return 0;
+        }
+        if(!key.startsWith(PREFIX)) {
+            return keyCount;
+        }
+        String digits = key.substring(PREFIX.length());
+        int low = 0;
+        int high = keyCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(KeyOrder.compare(keyFor(middle).substring(PREFIX.length()), digits) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
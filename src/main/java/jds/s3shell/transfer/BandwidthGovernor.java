@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import jds.s3shell.util.ByteSizes;
+import jds.s3shell.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owns the global bandwidth limit shared by every transfer in this shell and hands out a {@link Throttle}
+ * per command. The global limit can be changed at any time with the throttle command; running transfers
+ * pick up the new rate on their next read.
+ *
+ * @author jsvede
+ */
+@Component
+public class BandwidthGovernor {
+
+    private final TokenBucket global = new TokenBucket(0);
+
+    public BandwidthGovernor() {}
+
+    /**
+     * @return the global limit in bytes per second, 0 when unlimited.
+     */
+    public long getLimit() {
+        return global.getRate();
+    }
+
+    @Value("${s3shell.transfer.limit:0}")
+    public void setLimit(String limit) {
+        global.setRate(parseLimit(limit));
+    }
+
+    /**
+     * @param commandLimit - the command's own limit such as "50MB/s", or {@code null} for only the global limit.
+     * @return the throttle for one command.
+     * @throws IllegalArgumentException if the limit cannot be parsed.
+     */
+    public Throttle newThrottle(String commandLimit) {
+
+        long limit = commandLimit == null ? 0 : parseLimit(commandLimit);
+        if(limit == 0) {
+            return new Throttle(global);
+        }
+        return new Throttle(global, new TokenBucket(limit));
+    }
+
+    /**
+     * @return the limit in bytes per second; "off", "none" and "0" mean unlimited.
+     */
+    private static long parseLimit(String limit) {
+
+        String normalized = limit.trim().toLowerCase();
+        if(normalized.equals("off") || normalized.equals("none")) {
+            return 0;
+        }
+        return ByteSizes.parse(normalized);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.catalog.CatalogEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Applies get, delete or copy to every key listed in a manifest file, one key per line. The manifest is read a
+ * line at a time into a bounded {@link WorkQueue}, so it may hold tens of millions of keys. Each completed line
+ * is written to a {@link BatchJournal} under ~/.s3shell/batch; running the same batch again skips the lines an
+ * interrupted or partly failed run already completed. The journal is removed once every line has succeeded.
+ *
+ * @author jsvede
+ */
+@Component
+public class BatchEngine {
+
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private static final int MAX_RECORDED_FAILURES = 100;
+
+    /**
+     * One key of the manifest and the line it was read from.
+     */
+    private static class Entry {
+
+        private final int line;
+
+        private final String key;
+
+        Entry(int line, String key) {
+            this.line = line;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Applies the operation to a batch of entries and reports each one as done or failed.
+     */
+    private interface Action {
+        void apply(List<Entry> entries, Outcome outcome) throws Exception;
+    }
+
+    @Autowired
+    private TransferSettings settings;
+
+    @Autowired
+    private DownloadEngine downloadEngine;
+
+    @Autowired
+    private CopyEngine copyEngine;
+
+    @Autowired
+    private DeleteEngine deleteEngine;
+
+    private final File journalDirectory;
+
+    public BatchEngine() {
+        this(new File(System.getProperty("user.home") + File.separator + ".s3shell" + File.separator + "batch"));
+    }
+
+    public BatchEngine(File journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * Download every key of {@code manifest} to the same relative path below {@code localDirectory}.
+     *
+     * @return a summary with counts, throughput and the failed keys.
+     * @throws Exception if the manifest cannot be read.
+     */
+    public String get(final AmazonS3 client, final String bucketName, File manifest, File localDirectory,
+                      final PrintStream out, final Throttle throttle) throws Exception {
+
+        final String localRoot = localDirectory.getCanonicalPath() + File.separator;
+        return run("get", manifest, bucketName + " " + localRoot, 1, out, (entries, outcome) -> {
+            Entry entry = entries.get(0);
+            File localFile = new File(localRoot + entry.key);
+            if(!localFile.getCanonicalPath().startsWith(localRoot)) {
+                throw new IOException("key " + entry.key + " would be written outside of " + localRoot);
+            }
+            ObjectMetadata metadata = client.getObjectMetadata(bucketName, entry.key);
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(bucketName);
+            summary.setKey(entry.key);
+            summary.setSize(metadata.getContentLength());
+            summary.setETag(metadata.getETag());
+            summary.setLastModified(metadata.getLastModified());
+            if(!downloadEngine.download(client, bucketName, summary, localFile.getPath(), out, null, throttle)) {
+                throw new IOException("download of " + entry.key + " did not complete");
+            }
+            outcome.done(entry);
+        });
+    }
+
+    /**
+     * Delete every key of {@code manifest} with DeleteObjects requests of up to 1000 keys.
+     *
+     * @param onDeleted - called with the keys of each request that were deleted; may be {@code null}.
+     * @return a summary with counts, throughput and the keys that could not be deleted.
+     * @throws Exception if the manifest cannot be read.
+     */
+    public String delete(final AmazonS3 client, final String bucketName, File manifest,
+                         final Consumer<List<String>> onDeleted, PrintStream out) throws Exception {
+
+        return run("delete", manifest, bucketName, DeleteEngine.BATCH_SIZE, out, (entries, outcome) -> {
+            List<String> keys = new ArrayList<>(entries.size());
+            for(Entry entry : entries) {
+                keys.add(entry.key);
+            }
+            List<MultiObjectDeleteException.DeleteError> refused = new ArrayList<>();
+            List<String> deleted = deleteEngine.deleteKeys(client, bucketName, keys, refused);
+            if(onDeleted != null && !deleted.isEmpty()) {
+                onDeleted.accept(deleted);
+            }
+            Map<String, String> errors = new HashMap<>();
+            for(MultiObjectDeleteException.DeleteError error : refused) {
+                errors.put(error.getKey(), error.getCode() + " " + error.getMessage());
+            }
+            for(Entry entry : entries) {
+                String error = errors.get(entry.key);
+                if(error == null) {
+                    outcome.done(entry);
+                } else {
+                    outcome.failed(entry, error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy every key of {@code manifest} to the same key under {@code destinationPrefix}.
+     *
+     * @param client - the client for the destination bucket, which must be able to read the source.
+     * @param onCopied - called with each destination object once it is copied; may be {@code null}. The manifest
+     *                 carries no sizes, so each copy is followed by a HEAD of the new object when it is set.
+     * @return a summary with counts, throughput and the failed keys.
+     * @throws Exception if the manifest cannot be read.
+     */
+    public String copy(final AmazonS3 client, final String sourceBucket, File manifest, final String destinationBucket,
+                       final String destinationPrefix, final Consumer<CatalogEntry> onCopied, PrintStream out)
+            throws Exception {
+
+        return run("copy", manifest, sourceBucket + " " + destinationBucket + " " + destinationPrefix, 1, out,
+                   (entries, outcome) -> {
+            Entry entry = entries.get(0);
+            String destinationKey = destinationPrefix + entry.key;
+            copyEngine.copy(client, sourceBucket, entry.key, -1, destinationBucket, destinationKey);
+            if(onCopied != null) {
+                try {
+                    ObjectMetadata metadata = client.getObjectMetadata(destinationBucket, destinationKey);
+                    onCopied.accept(new CatalogEntry(destinationKey, metadata.getContentLength(),
+                                                     metadata.getLastModified() == null ? System.currentTimeMillis()
+                                                             : metadata.getLastModified().getTime(),
+                                                     metadata.getETag()));
+                } catch (AmazonClientException ace) {
+                    // the copy itself succeeded; only the catalog misses it until the next refresh
+                    out.println("copied " + destinationKey + " but could not read it back for the catalog: " +
+                                ace.getMessage());
+                }
+            }
+            outcome.done(entry);
+        });
+    }
+
+    private String run(String operation, File manifest, String target, final int batchSize, final PrintStream out,
+                       final Action action) throws Exception {
+
+        if(!manifest.isFile()) {
+            throw new IOException("manifest " + manifest + " does not exist");
+        }
+        String path = manifest.getCanonicalPath();
+        String name = operation + "-" + manifest.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "-" +
+                      Integer.toHexString((operation + " " + path + " " + target).hashCode()) + ".journal";
+        final BatchJournal journal = BatchJournal.open(new File(journalDirectory, name),
+                                                       operation + " " + path + " " + target + " " +
+                                                       manifest.length() + " " + manifest.lastModified());
+        final Outcome outcome = new Outcome(journal, out);
+        final AtomicLong skipped = new AtomicLong();
+        if(journal.isResumed()) {
+            out.println("resuming from " + journal.getFile() + ", " + journal.getDoneCount() + " keys already done");
+        }
+
+        WorkQueue<List<Entry>> queue = new WorkQueue<>("s3shell-batch", settings.getFileConcurrency(),
+                                                       Math.max(1, settings.getQueueDepth() / batchSize));
+        try {
+            queue.run(sink -> {
+                try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest),
+                                                                                     StandardCharsets.UTF_8))) {
+                    List<Entry> batch = new ArrayList<>(batchSize);
+                    String line;
+                    int lineNumber = 0;
+                    while((line = reader.readLine()) != null) {
+                        lineNumber++;
+                        if(line.length() == 0 || line.startsWith("#")) {
+                            continue;
+                        }
+                        if(journal.isDone(lineNumber)) {
+                            skipped.incrementAndGet();
+                            continue;
+                        }
+                        batch.add(new Entry(lineNumber, line));
+                        if(batch.size() == batchSize) {
+                            sink.put(batch);
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    }
+                    if(!batch.isEmpty()) {
+                        sink.put(batch);
+                    }
+                }
+            }, entries -> {
+                // failures are reported per entry, so only an interruption stops the queue
+                try {
+                    action.apply(entries, outcome);
+                } catch (InterruptedException ie) {
+                    throw ie;
+                } catch (Exception e) {
+                    for(Entry entry : entries) {
+                        outcome.failed(entry, e.getMessage());
+                    }
+                }
+            });
+        } finally {
+            journal.close();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(String failure : outcome.failures) {
+            sb.append(failure).append("\n");
+        }
+        if(outcome.failed.get() > outcome.failures.size()) {
+            sb.append("...\n");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - outcome.start);
+        sb.append("batch ").append(operation).append(" completed ").append(outcome.done.get()).append(" keys in ")
+          .append(elapsed / 1000.0).append("s (").append(outcome.done.get() * 1000 / elapsed).append(" keys/s)");
+        if(skipped.get() > 0) {
+            sb.append("; ").append(skipped.get()).append(" done by an earlier run");
+        }
+        if(outcome.failed.get() > 0) {
+            sb.append("; ").append(outcome.failed.get()).append(" failed, run the batch again to retry them");
+        } else {
+            journal.delete();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Journals the completed entries and counts and records the failed ones.
+     */
+    private static class Outcome {
+
+        private final BatchJournal journal;
+
+        private final PrintStream out;
+
+        private final long start = System.currentTimeMillis();
+
+        private final AtomicLong done = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+        Outcome(BatchJournal journal, PrintStream out) {
+            this.journal = journal;
+            this.out = out;
+        }
+
+        void done(Entry entry) throws IOException {
+
+            journal.complete(entry.line);
+            long count = done.incrementAndGet();
+            if(count % PROGRESS_INTERVAL == 0) {
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                out.println("completed " + count + " keys (" + count * 1000 / elapsed + " keys/s)");
+            }
+        }
+
+        void failed(Entry entry, String message) {
+
+            if(failed.incrementAndGet() <= MAX_RECORDED_FAILURES) {
+                failures.add("failed line " + entry.line + " " + entry.key + ": " + message);
+            }
+        }
+    }
+}
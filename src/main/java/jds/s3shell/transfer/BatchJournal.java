@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Records which lines of a batch manifest have been completed so an interrupted batch can resume. The journal
+ * starts with a description of the manifest it belongs to, followed by the number of each completed line as
+ * it finishes; reopening it reads the line numbers back into a {@code BitSet}, one bit per manifest line.
+ * <p>
+ * Line numbers are buffered, so a crash can lose the last few; those lines are done again on resume, which
+ * is harmless for the idempotent operations batch runs.
+ *
+ * @author jsvede
+ */
+public class BatchJournal implements Closeable {
+
+    private static final int MAGIC = 0x53334a4c;
+
+    private final File file;
+
+    private final BitSet done;
+
+    private final boolean resumed;
+
+    private DataOutputStream out;
+
+    private BatchJournal(File file, BitSet done, boolean resumed, DataOutputStream out) {
+        this.file = file;
+        this.done = done;
+        this.resumed = resumed;
+        this.out = out;
+    }
+
+    /**
+     * Open the journal in {@code file}, continuing it if it was written for the same {@code description} and
+     * starting it over otherwise.
+     *
+     * @param description - identifies the manifest, e.g. by its path, size and modification time.
+     */
+    public static BatchJournal open(File file, String description) throws IOException {
+
+        BitSet done = new BitSet();
+        boolean resumed = false;
+        if(file.exists()) {
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if(in.readInt() == MAGIC && in.readUTF().equals(description)) {
+                    resumed = true;
+                    while(true) {
+                        done.set(in.readInt());
+                    }
+                }
+            } catch (EOFException eof) {
+                // the end of the journal, possibly in the middle of a line number that was never flushed
+            }
+        }
+
+        File directory = file.getParentFile();
+        if(directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("unable to create the journal directory " + directory);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, resumed)));
+        if(!resumed) {
+            out.writeInt(MAGIC);
+            out.writeUTF(description);
+            out.flush();
+        }
+        return new BatchJournal(file, done, resumed, out);
+    }
+
+    /**
+     * @return true if the journal continues an earlier run of the same manifest.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public synchronized boolean isDone(int line) {
+        return done.get(line);
+    }
+
+    public synchronized int getDoneCount() {
+        return done.cardinality();
+    }
+
+    /**
+     * Record that {@code line} has been completed.
+     */
+    public synchronized void complete(int line) throws IOException {
+
+        if(!done.get(line)) {
+            done.set(line);
+            // a worker still finishing after an interrupted run closed the journal; the line is simply done again
+            if(out != null) {
+                out.writeInt(line);
+            }
+        }
+    }
+
+    /**
+     * Close and delete the journal once every line has been completed.
+     */
+    public synchronized void delete() throws IOException {
+
+        close();
+        if(file.exists() && !file.delete()) {
+            throw new IOException("unable to delete the journal " + file);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+        if(out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
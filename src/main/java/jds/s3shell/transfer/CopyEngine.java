@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.catalog.CatalogEntry;
+import jds.s3shell.listing.ListingPaginator;
+import jds.s3shell.util.ByteSizes;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Copies objects inside S3 so the data never passes through this machine. Objects up to 5GB are copied with a
+ * single CopyObject request; larger objects become multipart uploads whose parts are copied from byte ranges of
+ * the source with UploadPartCopy by a bounded pool of workers. A prefix is copied by listing it and handing the
+ * keys to {@code transfer.fileConcurrency} workers.
+ * <p>
+ * The copy requests are signed with the destination's client, so copies between buckets work whenever the
+ * destination credentials can read the source.
+ *
+ * @author jsvede
+ */
+@Component
+public class CopyEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(CopyEngine.class);
+
+    // the largest object a single CopyObject request accepts
+    public static final long MAX_SINGLE_COPY = 5 * ByteSizes.GB;
+
+    // parts are copied inside S3, so larger parts only save requests
+    private static final long MIN_COPY_PART_SIZE = 128 * ByteSizes.MB;
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private static final long ABORT_WAIT_SECONDS = 30;
+
+    @Autowired
+    private TransferSettings settings;
+
+    @Autowired
+    private UploadEngine uploadEngine;
+
+    @Autowired
+    private DeleteEngine deleteEngine;
+
+    public CopyEngine() {}
+
+    /**
+     * Copy one object.
+     *
+     * @param client - the client for the destination bucket, which must be able to read the source.
+     * @param size - the size of the source object, or -1 if it is not known; an object of unknown size is
+     *               copied with CopyObject first and as a multipart copy if S3 rejects it as too large.
+     * @return the ETag of the new object.
+     * @throws Exception if the copy fails.
+     */
+    public String copy(AmazonS3 client, String sourceBucket, String sourceKey, long size, String destinationBucket,
+                       String destinationKey) throws Exception {
+
+        if(size <= MAX_SINGLE_COPY) {
+            try {
+                return client.copyObject(new CopyObjectRequest(sourceBucket, sourceKey, destinationBucket,
+                                                               destinationKey)).getETag();
+            } catch (AmazonServiceException ase) {
+                if(size >= 0 || !"InvalidRequest".equals(ase.getErrorCode()) ||
+                   client.getObjectMetadata(sourceBucket, sourceKey).getContentLength() <= MAX_SINGLE_COPY) {
+                    throw ase;
+                }
+            }
+        }
+        return copyMultipart(client, sourceBucket, sourceKey, destinationBucket, destinationKey);
+    }
+
+    /**
+     * Copy every object under {@code sourcePrefix} to the same relative key under {@code destinationPrefix}.
+     * When {@code move} is set the copied sources are deleted in DeleteObjects batches as the copies finish; a
+     * source whose copy failed is kept.
+     *
+     * @param sourceClient - the client that lists and, for a move, deletes the sources.
+     * @param client - the client for the destination bucket, which must be able to read the source.
+     * @param onCopied - called with each destination object once it is copied; may be {@code null}.
+     * @param onDeleted - called with the source keys a move has deleted; may be {@code null}.
+     * @return a summary with object counts and the failures.
+     * @throws Exception if the listing fails.
+     */
+    public String copyPrefix(final AmazonS3 sourceClient, final AmazonS3 client, final String sourceBucket,
+                             final String sourcePrefix, final String destinationBucket, final String destinationPrefix,
+                             final boolean move, final Consumer<CatalogEntry> onCopied,
+                             final Consumer<List<String>> onDeleted, final PrintStream out) throws Exception {
+
+        final AtomicLong copied = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final List<String> copiedSources = new ArrayList<>(DeleteEngine.BATCH_SIZE);
+        final List<MultiObjectDeleteException.DeleteError> refused = Collections.synchronizedList(new ArrayList<>());
+        final long start = System.currentTimeMillis();
+
+        WorkQueue<S3ObjectSummary> queue = new WorkQueue<>("s3shell-copy", settings.getFileConcurrency(),
+                                                           settings.getQueueDepth());
+        List<WorkQueue.Failure<S3ObjectSummary>> failures = queue.run(sink -> {
+            try(ListingPaginator pages = new ListingPaginator(sourceClient, new ListObjectsV2Request()
+                    .withBucketName(sourceBucket).withPrefix(sourcePrefix), settings.getListingPrefetch())) {
+                for(S3ObjectSummary summary : pages) {
+                    sink.put(summary);
+                }
+            }
+        }, summary -> {
+            String destinationKey = destinationPrefix + summary.getKey().substring(sourcePrefix.length());
+            String etag = copy(client, sourceBucket, summary.getKey(), summary.getSize(), destinationBucket,
+                               destinationKey);
+            if(onCopied != null) {
+                onCopied.accept(new CatalogEntry(destinationKey, summary.getSize(), System.currentTimeMillis(), etag));
+            }
+            copied.incrementAndGet();
+            bytes.addAndGet(summary.getSize());
+            out.println((move ? "moved " : "copied ") + summary.getKey() + " to " + destinationKey);
+            if(move) {
+                List<String> batch = null;
+                synchronized(copiedSources) {
+                    copiedSources.add(summary.getKey());
+                    if(copiedSources.size() == DeleteEngine.BATCH_SIZE) {
+                        batch = new ArrayList<>(copiedSources);
+                        copiedSources.clear();
+                    }
+                }
+                if(batch != null) {
+                    deleteSources(sourceClient, sourceBucket, batch, refused, onDeleted);
+                }
+            }
+        });
+        if(!copiedSources.isEmpty()) {
+            deleteSources(sourceClient, sourceBucket, copiedSources, refused, onDeleted);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(WorkQueue.Failure<S3ObjectSummary> failure : failures) {
+            sb.append("failed ").append(failure.getItem().getKey()).append(": ")
+              .append(failure.getException().getMessage()).append("\n");
+        }
+        for(MultiObjectDeleteException.DeleteError error : refused) {
+            sb.append("copied but could not delete ").append(error.getKey()).append(": ").append(error.getCode())
+              .append(" ").append(error.getMessage()).append("\n");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        sb.append(move ? "Moved " : "Copied ").append(copied.get()).append(" objects, ")
+          .append(FileUtils.byteCountToDisplaySize(bytes.get())).append(" in ").append(elapsed / 1000.0)
+          .append("s (").append(copied.get() * 1000 / elapsed).append(" objects/s)");
+        if(queue.getFailureCount() > 0) {
+            sb.append("; ").append(queue.getFailureCount()).append(" failed");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Delete a batch of copied sources. A failure of the request itself, rather than of single keys, is recorded
+     * against every key in the batch so the summary still lists the sources that were left behind.
+     */
+    private void deleteSources(AmazonS3 sourceClient, String sourceBucket, List<String> keys,
+                               List<MultiObjectDeleteException.DeleteError> refused,
+                               Consumer<List<String>> onDeleted) throws InterruptedException {
+
+        try {
+            List<String> deleted = deleteEngine.deleteKeys(sourceClient, sourceBucket, keys, refused);
+            if(onDeleted != null && !deleted.isEmpty()) {
+                onDeleted.accept(deleted);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("DeleteObjects for " + keys.size() + " copied sources failed", e);
+            String code = e instanceof AmazonServiceException ?
+                    ((AmazonServiceException) e).getErrorCode() : e.getClass().getSimpleName();
+            for(String key : keys) {
+                MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+                error.setKey(key);
+                error.setCode(code);
+                error.setMessage(e.getMessage());
+                refused.add(error);
+            }
+        }
+    }
+
+    /**
+     * @return the part size of a multipart copy of an object of {@code size} bytes.
+     */
+    public long partSizeFor(long size) {
+        return Math.max(MIN_COPY_PART_SIZE, uploadEngine.partSizeFor(size));
+    }
+
+    private String copyMultipart(final AmazonS3 client, final String sourceBucket, final String sourceKey,
+                                 final String destinationBucket, final String destinationKey) throws Exception {
+
+        ObjectMetadata source = client.getObjectMetadata(sourceBucket, sourceKey);
+        final long size = source.getContentLength();
+        final String sourceETag = source.getETag();
+        final long partSize = partSizeFor(size);
+        final int partCount = (int) ((size + partSize - 1) / partSize);
+
+        // CopyObject carries the metadata over by itself; a multipart upload has to be given it
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(source.getContentType());
+        metadata.setContentEncoding(source.getContentEncoding());
+        metadata.setContentDisposition(source.getContentDisposition());
+        metadata.setCacheControl(source.getCacheControl());
+        metadata.setUserMetadata(source.getUserMetadata());
+
+        final String uploadId = client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(destinationBucket, destinationKey, metadata)).getUploadId();
+        boolean completed = false;
+        ExecutorService pool = Workers.newPool("s3shell-copy-part", Math.min(settings.getUploadConcurrency(), partCount));
+        try {
+            List<Future<PartETag>> parts = new ArrayList<>(partCount);
+            for(int part = 1; part <= partCount; part++) {
+                final long offset = (part - 1) * partSize;
+                final CopyPartRequest request = new CopyPartRequest()
+                        .withSourceBucketName(sourceBucket).withSourceKey(sourceKey)
+                        .withDestinationBucketName(destinationBucket).withDestinationKey(destinationKey)
+                        .withUploadId(uploadId).withPartNumber(part)
+                        .withFirstByte(offset).withLastByte(Math.min(size, offset + partSize) - 1)
+                        .withMatchingETagConstraint(sourceETag);
+                parts.add(pool.submit(() -> copyPart(client, request)));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(partCount);
+            for(Future<PartETag> part : parts) {
+                try {
+                    partETags.add(part.get());
+                } catch (ExecutionException ee) {
+                    throw Workers.unwrap(ee);
+                }
+            }
+
+            String etag = client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(destinationBucket, destinationKey, uploadId, partETags)).getETag();
+            completed = true;
+            return etag;
+        } finally {
+            pool.shutdownNow();
+            if(!completed) {
+                abort(client, destinationBucket, destinationKey, uploadId, pool);
+            }
+        }
+    }
+
+    /**
+     * Copy one part, retrying it on transient errors.
+     */
+    private PartETag copyPart(AmazonS3 client, CopyPartRequest request) throws Exception {
+
+        for(int attempt = 0; ; attempt++) {
+            try {
+                CopyPartResult result = client.copyPart(request);
+                if(result == null) {
+                    throw new IOException(request.getSourceKey() + " changed while it was being copied");
+                }
+                return result.getPartETag();
+            } catch (AmazonClientException ace) {
+                if(attempt >= settings.getUploadRetries() || !UploadEngine.isRetryable(ace) ||
+                   Thread.currentThread().isInterrupted()) {
+                    throw ace;
+                }
+                logger.warn("retrying part " + request.getPartNumber() + " of " + request.getDestinationKey() + ": " +
+                            ace.getMessage());
+                Thread.sleep(RETRY_BACKOFF_MILLIS * (attempt + 1));
+            }
+        }
+    }
+
+    /**
+     * Waits for in-flight parts to stop before aborting, as {@link UploadEngine} does.
+     */
+    private void abort(AmazonS3 client, String bucketName, String key, String uploadId, ExecutorService pool) {
+
+        try {
+            pool.awaitTermination(ABORT_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (AmazonClientException ace) {
+            logger.error("unable to abort multipart copy " + uploadId + " for " + key, ace);
+        }
+    }
+}
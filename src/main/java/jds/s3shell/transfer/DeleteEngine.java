@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.listing.ObjectPages;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Deletes every object of a listing with multi-object DeleteObjects requests of up to {@value #BATCH_SIZE}
+ * keys each. Batches are sent by delete.concurrency workers while the listing is still being read, so a
+ * prefix with millions of keys costs thousands of requests instead of millions.
+ * <p>
+ * A key S3 refuses to delete does not fail its batch; the refused keys are collected and reported together
+ * once the listing is exhausted.
+ *
+ * @author jsvede
+ */
+@Component
+public class DeleteEngine {
+
+    // the most keys S3 accepts in one DeleteObjects request
+    public static final int BATCH_SIZE = 1000;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int MAX_RECORDED_ERRORS = 100;
+
+    @Autowired
+    private TransferSettings settings;
+
+    public DeleteEngine() {}
+
+    /**
+     * Delete the objects of {@code pages}.
+     *
+     * @param onDeleted - called from the worker threads with the keys of each batch that were deleted, may be null.
+     * @return a summary of what was deleted, listing the keys that could not be deleted.
+     * @throws Exception if the listing fails.
+     */
+    public String delete(final AmazonS3 client, final String bucketName, final ObjectPages pages,
+                         final Consumer<List<String>> onDeleted, final PrintStream out) throws Exception {
+
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong errorCount = new AtomicLong();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        final long start = System.currentTimeMillis();
+
+        WorkQueue<List<String>> queue = new WorkQueue<>("s3shell-delete", settings.getDeleteConcurrency(),
+                                                        settings.getDeleteConcurrency());
+        List<WorkQueue.Failure<List<String>>> failures = queue.run(sink -> {
+            try {
+                List<String> batch = new ArrayList<>(BATCH_SIZE);
+                List<S3ObjectSummary> page;
+                while((page = pages.nextSummaries()) != null) {
+                    for(S3ObjectSummary summary : page) {
+                        batch.add(summary.getKey());
+                        if(batch.size() == BATCH_SIZE) {
+                            sink.put(batch);
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+                if(!batch.isEmpty()) {
+                    sink.put(batch);
+                }
+            } finally {
+                pages.close();
+            }
+        }, batch -> {
+            List<MultiObjectDeleteException.DeleteError> refused = new ArrayList<>();
+            List<String> done = deleteKeys(client, bucketName, batch, refused);
+            deleted.addAndGet(done.size());
+            if(!done.isEmpty()) {
+                if(onDeleted != null) {
+                    onDeleted.accept(done);
+                }
+                out.println("deleted " + done.size() + " keys through " + done.get(done.size() - 1));
+            }
+            for(MultiObjectDeleteException.DeleteError error : refused) {
+                if(errorCount.incrementAndGet() <= MAX_RECORDED_ERRORS) {
+                    errors.add("failed " + error.getKey() + ": " + error.getCode() + " " + error.getMessage());
+                }
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for(String error : errors) {
+            sb.append(error).append("\n");
+        }
+        for(WorkQueue.Failure<List<String>> failure : failures) {
+            List<String> batch = failure.getItem();
+            sb.append("failed ").append(batch.size()).append(" keys from ").append(batch.get(0)).append(" to ")
+              .append(batch.get(batch.size() - 1)).append(": ").append(failure.getException().getMessage()).append("\n");
+        }
+        long failed = errorCount.get() + queue.getFailureCount();
+        if(failed > errors.size() + failures.size()) {
+            sb.append("...\n");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        sb.append("Deleted ").append(deleted.get()).append(" objects in ").append(elapsed / 1000.0).append("s (")
+          .append(deleted.get() * 1000 / elapsed).append(" keys/s)");
+        if(errorCount.get() > 0) {
+            sb.append("; ").append(errorCount.get()).append(" keys could not be deleted");
+        }
+        if(queue.getFailureCount() > 0) {
+            sb.append("; ").append(queue.getFailureCount()).append(" batches failed");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Delete up to {@value #BATCH_SIZE} keys with DeleteObjects, sending the keys that failed with a transient
+     * error again.
+     *
+     * @param refused - receives the errors for the keys that could not be deleted.
+     * @return the keys that were deleted.
+     */
+    public List<String> deleteKeys(AmazonS3 client, String bucketName, List<String> keys,
+                                   List<MultiObjectDeleteException.DeleteError> refused) throws InterruptedException {
+
+        List<String> deleted = new ArrayList<>(keys.size());
+        List<String> remaining = keys;
+        for(int attempt = 1; attempt <= MAX_ATTEMPTS && !remaining.isEmpty(); attempt++) {
+            if(attempt > 1) {
+                Thread.sleep(100L << attempt);
+            }
+            Set<String> refusedKeys = new HashSet<>();
+            List<String> retry = new ArrayList<>();
+            for(MultiObjectDeleteException.DeleteError error : deleteBatch(client, bucketName, remaining)) {
+                refusedKeys.add(error.getKey());
+                if(isTransient(error.getCode()) && attempt < MAX_ATTEMPTS) {
+                    retry.add(error.getKey());
+                } else {
+                    refused.add(error);
+                }
+            }
+            for(String key : remaining) {
+                if(!refusedKeys.contains(key)) {
+                    deleted.add(key);
+                }
+            }
+            remaining = retry;
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the keys S3 refused to delete; empty when every key was deleted.
+     */
+    private static List<MultiObjectDeleteException.DeleteError> deleteBatch(AmazonS3 client, String bucketName,
+                                                                            List<String> keys) {
+
+        // quiet mode only reports the keys that failed, which keeps the response small
+        DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName).withKeys(keys.toArray(new String[0]))
+                                                                           .withQuiet(true);
+        try {
+            client.deleteObjects(request);
+            return Collections.emptyList();
+        } catch (MultiObjectDeleteException mode) {
+            return mode.getErrors();
+        }
+    }
+
+    private static boolean isTransient(String code) {
+        return "InternalError".equals(code) || "SlowDown".equals(code) || "ServiceUnavailable".equals(code);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import jds.s3shell.util.Checksums;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the MD5 of the bytes read from the wrapped stream and charges the hashing time to an
+ * {@link IntegrityCheck}. Given the part size of a multipart upload it also splits the digest at the part
+ * boundaries, so the multipart form of the ETag can be computed in the same pass.
+ *
+ * @author jsvede
+ */
+public class DigestingInputStream extends FilterInputStream {
+
+    private final long partSize;
+
+    private final IntegrityCheck check;
+
+    private final List<byte[]> partDigests = new ArrayList<>();
+
+    private MessageDigest digest = Checksums.newMd5();
+
+    private long partRemaining;
+
+    /**
+     * @param partSize - the part size of the multipart upload that created the object, or 0 for a plain MD5.
+     */
+    public DigestingInputStream(InputStream in, long partSize, IntegrityCheck check) {
+        super(in);
+        this.partSize = partSize;
+        this.partRemaining = partSize > 0 ? partSize : Long.MAX_VALUE;
+        this.check = check;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+        int read = in.read(buffer, offset, length);
+        if(read > 0) {
+            long start = System.nanoTime();
+            int position = offset;
+            int remaining = read;
+            while(remaining > 0) {
+                int count = (int) Math.min(remaining, partRemaining);
+                digest.update(buffer, position, count);
+                position += count;
+                remaining -= count;
+                partRemaining -= count;
+                if(partRemaining == 0) {
+                    partDigests.add(digest.digest());
+                    partRemaining = partSize;
+                }
+            }
+            check.recordDigestTime(System.nanoTime() - start);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+
+        byte[] discard = new byte[(int) Math.min(count, 8192)];
+        long skipped = 0;
+        while(skipped < count) {
+            int read = read(discard, 0, (int) Math.min(discard.length, count - skipped));
+            if(read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @return the binary MD5 of everything read; only meaningful without a part size.
+     */
+    public byte[] digest() {
+        return digest.digest();
+    }
+
+    /**
+     * @return the ETag S3 would report for the bytes read: the hex MD5, or the multipart form when a part
+     * size was given.
+     */
+    public String etag() {
+
+        if(partSize <= 0) {
+            return Checksums.toHex(digest.digest());
+        }
+        List<byte[]> parts = new ArrayList<>(partDigests);
+        if(partRemaining < partSize) {
+            parts.add(digest.digest());
+        }
+        return IntegrityCheck.multipartEtag(parts.toArray(new byte[parts.size()][]));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The sidecar file written next to a partially downloaded file. It records the ETag and size of the
+ * object being downloaded, the part size used to split it and which parts have been written, so a
+ * later get of the same object only fetches the missing parts. Parts are recorded as they are written
+ * and persisted in batches, each after the file has been forced to disk.
+ *
+ * @author jsvede
+ */
+public class DownloadCheckpoint {
+
+    public static final String SIDECAR_SUFFIX = ".s3part";
+
+    private String etag;
+
+    private long size;
+
+    private long partSize;
+
+    private TreeSet<Integer> completedParts = new TreeSet<>();
+
+    private TreeMap<Integer, String> partMd5s = new TreeMap<>();
+
+    private transient Map<Integer, String> writtenParts = new TreeMap<>();
+
+    private transient File sidecarFile;
+
+    private transient Gson gson;
+
+    public DownloadCheckpoint() {}
+
+    public DownloadCheckpoint(File sidecarFile, Gson gson, String etag, long size, long partSize) {
+        this.sidecarFile = sidecarFile;
+        this.gson = gson;
+        this.etag = etag;
+        this.size = size;
+        this.partSize = partSize;
+    }
+
+    /**
+     * @param destinationFile - the local file being downloaded.
+     * @return the sidecar file that belongs to {@code destinationFile}.
+     */
+    public static File sidecarFor(File destinationFile) {
+        return new File(destinationFile.getPath() + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Reads the checkpoint stored in {@code sidecarFile}.
+     *
+     * @return the checkpoint or {@code null} if there is none or it cannot be read.
+     */
+    public static DownloadCheckpoint load(File sidecarFile, Gson gson) {
+
+        if(!sidecarFile.exists()) {
+            return null;
+        }
+        try(Reader reader = new FileReader(sidecarFile)) {
+            DownloadCheckpoint checkpoint = gson.fromJson(reader, DownloadCheckpoint.class);
+            if(checkpoint == null || checkpoint.partSize <= 0) {
+                return null;
+            }
+            if(checkpoint.completedParts == null) {
+                checkpoint.completedParts = new TreeSet<>();
+            }
+            if(checkpoint.partMd5s == null) {
+                checkpoint.partMd5s = new TreeMap<>();
+            }
+            checkpoint.sidecarFile = sidecarFile;
+            checkpoint.gson = gson;
+            return checkpoint;
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this checkpoint was written for the same version of the object.
+     */
+    public boolean matches(String etag, long size) {
+        return this.etag != null && this.etag.equals(etag) && this.size == size;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public int getPartCount() {
+        return (int) ((size + partSize - 1) / partSize);
+    }
+
+    public synchronized BitSet getCompletedParts() {
+
+        BitSet parts = new BitSet(getPartCount());
+        for(Integer part : completedParts) {
+            parts.set(part);
+        }
+        return parts;
+    }
+
+    /**
+     * Record that {@code part} has been written. The part is only persisted by the next {@link #sync}, once its
+     * bytes have been forced to disk.
+     *
+     * @param md5 - the hex MD5 of the part or {@code null} if it was not computed.
+     */
+    public synchronized void complete(int part, String md5) {
+        writtenParts.put(part, md5);
+    }
+
+    /**
+     * Force {@code channel} to disk and then persist the parts that had been written to it before the force,
+     * so the sidecar never lists a part whose bytes could still be lost in a crash.
+     */
+    public void sync(FileChannel channel) throws IOException {
+
+        Map<Integer, String> written;
+        synchronized(this) {
+            if(writtenParts.isEmpty()) {
+                return;
+            }
+            written = new TreeMap<>(writtenParts);
+            writtenParts.clear();
+        }
+        channel.force(false);
+        synchronized(this) {
+            for(Map.Entry<Integer, String> part : written.entrySet()) {
+                completedParts.add(part.getKey());
+                if(part.getValue() != null) {
+                    partMd5s.put(part.getKey(), part.getValue());
+                }
+            }
+            save();
+        }
+    }
+
+    /**
+     * @return the hex MD5 recorded for {@code part} or {@code null}.
+     */
+    public synchronized String getPartMd5(int part) {
+        return partMd5s.get(part);
+    }
+
+    /**
+     * @return true if an MD5 was recorded for every completed part.
+     */
+    public synchronized boolean hasPartMd5s() {
+        return partMd5s.keySet().containsAll(completedParts);
+    }
+
+    /**
+     * Write the checkpoint to a temporary file and move it over the sidecar so a crash never leaves a
+     * half written sidecar behind.
+     */
+    public synchronized void save() throws IOException {
+
+        File temporary = new File(sidecarFile.getPath() + ".tmp");
+        try(Writer writer = new FileWriter(temporary)) {
+            gson.toJson(this, writer);
+        }
+        Files.move(temporary.toPath(), sidecarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public void delete() {
+        sidecarFile.delete();
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.gson.Gson;
+import jds.s3shell.listing.ListingPaginator;
+import jds.s3shell.util.ByteBufferPool;
+import jds.s3shell.util.ChannelWriter;
+import jds.s3shell.util.Checksums;
+import jds.s3shell.util.DownloadProgress;
+import jds.s3shell.util.TransferProgress;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads objects to local files. Objects smaller than the configured threshold are streamed on the
+ * calling thread; larger objects are split into byte ranges that a bounded pool of workers fetch
+ * concurrently and write straight to their offsets in a preallocated local file.
+ * <p>
+ * Ranged downloads keep a {@link DownloadCheckpoint} next to the local file while they run, so a
+ * download that is interrupted resumes with the missing parts as long as the object's ETag is unchanged.
+ * <p>
+ * Unless transfer.verify is off, the MD5 is computed while the bytes stream and compared with the ETag,
+ * including the multipart form; a download that does not match is deleted and fails.
+ *
+ * @author jsvede
+ */
+@Component
+public class DownloadEngine {
+
+    private static final int PROGRESS_SEGMENTS = 64;
+
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 2000;
+
+    @Autowired
+    private DownloadProgress downloadProgress;
+
+    @Autowired
+    private TransferSettings settings;
+
+    @Autowired
+    private Gson gson;
+
+    @Autowired
+    private ByteBufferPool bufferPool;
+
+    @Autowired
+    private BandwidthGovernor governor;
+
+    public DownloadEngine() {}
+
+    /**
+     * Download the object described by {@code summary} to {@code localPath}.
+     *
+     * @param client - the client for the bucket holding the object.
+     * @param bucketName - the name of the bucket.
+     * @param summary - the listing entry of the object to download.
+     * @param localPath - the fully qualified name of the local file.
+     * @param out - the PrintStream to write progress to.
+     * @return true if the download completed.
+     * @throws Exception if any part of the download fails.
+     */
+    public boolean download(AmazonS3 client, String bucketName, S3ObjectSummary summary, String localPath,
+                            PrintStream out) throws Exception {
+
+        return download(client, bucketName, summary, localPath, out, out, governor.newThrottle(null));
+    }
+
+    /**
+     * Download the object described by {@code summary} to {@code localPath}.
+     *
+     * @param out - the PrintStream to write messages to.
+     * @param progressOut - the PrintStream to draw the progress bar on; {@code null} for no progress bar.
+     * @param throttle - the bandwidth limits the download reads against.
+     * @return true if the download completed.
+     * @throws Exception if any part of the download fails.
+     */
+    public boolean download(AmazonS3 client, String bucketName, S3ObjectSummary summary, String localPath,
+                            PrintStream out, PrintStream progressOut, Throttle throttle) throws Exception {
+
+        File destinationFile = new File(localPath);
+        boolean resumable = DownloadCheckpoint.sidecarFor(destinationFile).exists();
+
+        if(summary.getSize() < settings.getDownloadThreshold() && !resumable) {
+            S3Object s3object = client.getObject(new GetObjectRequest(bucketName, summary.getKey()));
+            ObjectMetadata metadata = s3object.getObjectMetadata();
+            InputStream content = throttle.wrap(s3object.getObjectContent());
+
+            long verifyPartSize = verificationPartSize(client, bucketName, summary, metadata);
+            IntegrityCheck check = verifyPartSize < 0 ? null : new IntegrityCheck();
+            DigestingInputStream digesting = check == null ? null : new DigestingInputStream(content, verifyPartSize, check);
+
+            boolean success = downloadProgress.readFile(digesting == null ? content : digesting, localPath,
+                                                        metadata.getContentLength(), newChannelWriter(),
+                                                        PROGRESS_SEGMENTS, progressOut);
+            if(success && check != null) {
+                verify(check, summary, digesting.etag(), destinationFile, progressOut);
+            }
+            return success;
+        }
+        return downloadRanges(client, bucketName, summary, destinationFile, out, progressOut, throttle);
+    }
+
+    /**
+     * Works out how the download of {@code summary} can be verified.
+     *
+     * @param metadata - metadata already fetched for the object, or {@code null} to HEAD it.
+     * @return -1 if it cannot be verified, 0 if its ETag is a plain MD5 or else the part size of the multipart
+     * upload that created it.
+     */
+    private long verificationPartSize(AmazonS3 client, String bucketName, S3ObjectSummary summary,
+                                      ObjectMetadata metadata) {
+
+        if(!settings.isVerify()) {
+            return -1;
+        }
+        int parts = IntegrityCheck.partCount(summary.getETag());
+        if(metadata == null || parts > 0) {
+            GetObjectMetadataRequest request = new GetObjectMetadataRequest(bucketName, summary.getKey());
+            if(parts > 0) {
+                request.withPartNumber(1);
+            }
+            metadata = client.getObjectMetadata(request);
+        }
+        if(!IntegrityCheck.canVerify(summary.getETag(), metadata.getSSEAlgorithm(), metadata.getSSECustomerAlgorithm())) {
+            return -1;
+        }
+        if(parts == 0) {
+            return 0;
+        }
+        // only uploads whose parts all share the first part's size, as every SDK and the CLI produce, can be checked
+        long partSize = metadata.getContentLength();
+        if(partSize <= 0 || (summary.getSize() + partSize - 1) / partSize != parts) {
+            return -1;
+        }
+        return partSize;
+    }
+
+    /**
+     * Compare the computed ETag with the listed one, removing the local file if they differ.
+     */
+    private void verify(IntegrityCheck check, S3ObjectSummary summary, String actual, File destinationFile,
+                        PrintStream progressOut) throws IOException {
+
+        try {
+            check.verify(summary.getKey(), summary.getETag(), actual);
+        } catch (IOException ioe) {
+            destinationFile.delete();
+            throw ioe;
+        }
+        if(progressOut != null) {
+            progressOut.println(check.describe());
+        }
+    }
+
+    /**
+     * Download every object under {@code prefix} into {@code localDirectory}, mirroring the key hierarchy
+     * below the last '/' of the prefix. Prefetched listing pages are streamed into a bounded queue that feeds
+     * {@code transfer.fileConcurrency} download workers, so downloads start with the first page and
+     * memory depends on the queue depth rather than the number of keys.
+     *
+     * @return a summary of the transfer.
+     * @throws Exception if the listing fails.
+     */
+    public String downloadPrefix(final AmazonS3 client, final String bucketName, final String prefix,
+                                 final File localDirectory, final PrintStream out, final Throttle throttle)
+            throws Exception {
+
+        final String basePrefix = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+        final String localRoot = localDirectory.getCanonicalPath() + File.separator;
+        final AtomicLong fileCount = new AtomicLong();
+        final AtomicLong byteCount = new AtomicLong();
+        final long start = System.currentTimeMillis();
+
+        WorkQueue<S3ObjectSummary> queue = new WorkQueue<>("s3shell-get", settings.getFileConcurrency(),
+                                                           settings.getQueueDepth());
+        List<WorkQueue.Failure<S3ObjectSummary>> failures = queue.run(sink -> {
+            ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucketName).withPrefix(prefix);
+            try(ListingPaginator pages = new ListingPaginator(client, request, settings.getListingPrefetch())) {
+                for(S3ObjectSummary summary : pages) {
+                    if(!isFolderMarker(summary.getKey())) {
+                        sink.put(summary);
+                    }
+                }
+            }
+        }, summary -> {
+            File localFile = new File(localRoot + summary.getKey().substring(basePrefix.length()));
+            if(!localFile.getCanonicalPath().startsWith(localRoot)) {
+                throw new IOException("key " + summary.getKey() + " would be written outside of " + localRoot);
+            }
+            download(client, bucketName, summary, localFile.getPath(), out, null, throttle);
+            fileCount.incrementAndGet();
+            byteCount.addAndGet(summary.getSize());
+            out.println("downloaded " + summary.getKey() + " (" + FileUtils.byteCountToDisplaySize(summary.getSize()) + ")");
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for(WorkQueue.Failure<S3ObjectSummary> failure : failures) {
+            sb.append("failed ").append(failure.getItem().getKey()).append(": ")
+              .append(failure.getException().getMessage()).append("\n");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        sb.append("Downloaded ").append(fileCount.get()).append(" files, ")
+          .append(FileUtils.byteCountToDisplaySize(byteCount.get())).append(" in ").append(elapsed / 1000.0)
+          .append("s (").append(FileUtils.byteCountToDisplaySize(byteCount.get() * 1000 / elapsed)).append("/s)");
+        if(queue.getFailureCount() > 0) {
+            sb.append("; ").append(queue.getFailureCount()).append(" failed");
+        }
+        return sb.toString();
+    }
+
+    static boolean isFolderMarker(String key) {
+        return key.endsWith("/") || key.endsWith("_$folder$");
+    }
+
+    private boolean downloadRanges(final AmazonS3 client, final String bucketName, S3ObjectSummary summary,
+                                   File destinationFile, PrintStream out, PrintStream progressOut,
+                                   final Throttle throttle) throws Exception {
+
+        final String key = summary.getKey();
+        final String etag = summary.getETag();
+        final long size = summary.getSize();
+
+        if(destinationFile.getParentFile() != null && !destinationFile.getParentFile().exists()) {
+            destinationFile.getParentFile().mkdirs();
+        }
+
+        // ranges follow the original parts of a multipart upload so each range yields one part MD5
+        final long verifyPartSize = verificationPartSize(client, bucketName, summary, null);
+        final IntegrityCheck check = verifyPartSize < 0 ? null : new IntegrityCheck();
+        final boolean partDigests = verifyPartSize > 0;
+
+        final DownloadCheckpoint checkpoint = openCheckpoint(destinationFile, etag, size, partDigests ? verifyPartSize : 0, out);
+        final long partSize = checkpoint.getPartSize();
+        final BitSet completedParts = checkpoint.getCompletedParts();
+
+        final TransferProgress progress = downloadProgress.newProgress(size, PROGRESS_SEGMENTS, progressOut);
+        final ChannelWriter writer = newChannelWriter();
+        ExecutorService pool = Workers.newPool("s3shell-download", settings.getDownloadConcurrency());
+        ExecutorService digestPool = Workers.newPool("s3shell-digest", 1);
+
+        String actual = null;
+        try(RandomAccessFile file = new RandomAccessFile(destinationFile, "rw")) {
+            file.setLength(size);
+            final FileChannel channel = file.getChannel();
+
+            final SequentialDigest follower = check != null && !partDigests ?
+                    new SequentialDigest(channel, size, partSize, completedParts, check) : null;
+            Future<String> followerResult = follower == null ? null : digestPool.submit(follower);
+
+            CompletionService<Long> completion = new ExecutorCompletionService<>(pool);
+            int submitted = 0;
+            for(int part = 0; part < checkpoint.getPartCount(); part++) {
+                final long first = part * partSize;
+                final long last = Math.min(size, first + partSize) - 1;
+                if(completedParts.get(part)) {
+                    progress.add(last - first + 1);
+                    continue;
+                }
+                final int partNumber = part;
+                completion.submit(() -> {
+                    String md5 = downloadRange(client, bucketName, key, etag, first, last, channel, writer, progress,
+                                               throttle, partDigests ? check : null);
+                    checkpoint.complete(partNumber, md5);
+                    if(follower != null) {
+                        follower.complete(partNumber);
+                    }
+                    return last - first + 1;
+                });
+                submitted++;
+            }
+
+            long synced = System.currentTimeMillis();
+            try {
+                for(int i = 0; i < submitted; i++) {
+                    try {
+                        completion.take().get();
+                    } catch (ExecutionException ee) {
+                        throw Workers.unwrap(ee);
+                    }
+                    // forcing the file for every part would stall fast downloads; batch it by time
+                    if(System.currentTimeMillis() - synced >= CHECKPOINT_INTERVAL_MILLIS) {
+                        checkpoint.sync(channel);
+                        synced = System.currentTimeMillis();
+                    }
+                }
+            } finally {
+                // keep the parts that did finish so a failed download resumes from them
+                try {
+                    checkpoint.sync(channel);
+                } catch (IOException e) {
+                    out.println("unable to save the download checkpoint: " + e.getMessage());
+                }
+            }
+
+            if(partDigests) {
+                byte[][] digests = new byte[checkpoint.getPartCount()][];
+                for(int part = 0; part < digests.length; part++) {
+                    digests[part] = Checksums.fromHex(checkpoint.getPartMd5(part));
+                }
+                actual = IntegrityCheck.multipartEtag(digests);
+            } else if(followerResult != null) {
+                try {
+                    actual = followerResult.get();
+                } catch (ExecutionException ee) {
+                    throw Workers.unwrap(ee);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            digestPool.shutdownNow();
+        }
+
+        checkpoint.delete();
+        if(check != null) {
+            verify(check, summary, actual, destinationFile, null);
+        }
+        progress.complete();
+        if(check != null && progressOut != null) {
+            progressOut.println(check.describe());
+        }
+        return true;
+    }
+
+    /**
+     * Returns the checkpoint to continue from, or a new one if there is none or the object has changed
+     * since the checkpoint was written.
+     *
+     * @param requiredPartSize - the part size the download must use, or 0 to use any.
+     */
+    private DownloadCheckpoint openCheckpoint(File destinationFile, String etag, long size, long requiredPartSize,
+                                              PrintStream out) throws IOException {
+
+        File sidecarFile = DownloadCheckpoint.sidecarFor(destinationFile);
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(sidecarFile, gson);
+
+        if(checkpoint != null) {
+            if(!checkpoint.matches(etag, size)) {
+                out.println("remote object has changed since the last attempt; restarting the download");
+            } else if(!destinationFile.exists()) {
+                out.println("partially downloaded file is missing; restarting the download");
+            } else if(requiredPartSize != 0 &&
+                      (checkpoint.getPartSize() != requiredPartSize || !checkpoint.hasPartMd5s())) {
+                out.println("last attempt did not record the part checksums needed to verify the object; " +
+                            "restarting the download");
+            } else {
+                out.println("resuming download; " + checkpoint.getCompletedParts().cardinality() + " of " +
+                            checkpoint.getPartCount() + " parts already downloaded");
+                return checkpoint;
+            }
+        }
+
+        long partSize = requiredPartSize > 0 ? requiredPartSize : settings.getDownloadPartSize();
+        checkpoint = new DownloadCheckpoint(sidecarFile, gson, etag, size, partSize);
+        checkpoint.save();
+        return checkpoint;
+    }
+
+    /**
+     * Fetch the inclusive byte range {@code first}-{@code last} and write it at the same offset in the channel.
+     * The request is constrained to {@code etag} so a range is never taken from a newer version of the object.
+     *
+     * @param check - set to hash the range as it streams.
+     * @return the hex MD5 of the range, or {@code null} without a check.
+     */
+    private String downloadRange(AmazonS3 client, String bucketName, String key, String etag, long first, long last,
+                                 FileChannel channel, ChannelWriter writer, TransferProgress progress,
+                                 Throttle throttle, IntegrityCheck check) throws IOException {
+
+        GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(first, last);
+        if(etag != null) {
+            request.withMatchingETagConstraint(etag);
+        }
+        S3Object s3object = client.getObject(request);
+        if(s3object == null) {
+            throw new IOException("Remote object " + key + " changed during the download; run get again to restart it");
+        }
+        S3ObjectInputStream in = s3object.getObjectContent();
+
+        InputStream throttled = throttle.wrap(in);
+        DigestingInputStream digesting = check == null ? null : new DigestingInputStream(throttled, 0, check);
+        long length = last - first + 1;
+        boolean complete = false;
+        try {
+            long copied = writer.copy(digesting == null ? throttled : digesting, channel, first, length, progress);
+            if(copied != length) {
+                throw new IOException("Short read for " + key + " range " + first + "-" + last +
+                                      "; received " + copied + " bytes");
+            }
+            complete = true;
+        } finally {
+            if(complete) {
+                in.close();
+            } else {
+                in.abort();
+            }
+        }
+        return digesting == null ? null : Checksums.toHex(digesting.digest());
+    }
+
+    private ChannelWriter newChannelWriter() {
+        return new ChannelWriter(bufferPool, settings.getDownloadBufferSize(), settings.getDownloadMaxBufferSize(),
+                                 settings.isDownloadMemoryMapped());
+    }
+}
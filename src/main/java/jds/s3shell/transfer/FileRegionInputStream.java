@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Streams a region of a file for an upload while computing its MD5. Mark and reset are supported for any
+ * distance by seeking the file and restoring a copy of the digest, so the SDK can retry a request
+ * without the digest counting bytes twice.
+ *
+ * @author jsvede
+ */
+public class FileRegionInputStream extends InputStream {
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    private final long end;
+
+    private final IntegrityCheck check;
+
+    private long position;
+
+    private MessageDigest digest;
+
+    private long markPosition;
+
+    private MessageDigest markDigest;
+
+    public FileRegionInputStream(File source, long offset, long length, MessageDigest digest, IntegrityCheck check)
+            throws IOException {
+        this.file = new RandomAccessFile(source, "r");
+        this.channel = file.getChannel();
+        this.position = offset;
+        this.end = offset + length;
+        this.digest = digest;
+        this.check = check;
+        mark(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+        if(position >= end) {
+            return -1;
+        }
+        int wanted = (int) Math.min(length, end - position);
+        int read = channel.read(ByteBuffer.wrap(buffer, offset, wanted), position);
+        if(read == -1) {
+            throw new IOException("file ended " + (end - position) + " bytes early; was it modified during the upload?");
+        }
+        position += read;
+
+        long start = System.nanoTime();
+        digest.update(buffer, offset, read);
+        check.recordDigestTime(System.nanoTime() - start);
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        markPosition = position;
+        markDigest = copy(digest);
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = markPosition;
+        digest = copy(markDigest);
+    }
+
+    /**
+     * @return the MD5 of the bytes read so far; call once the region has been read completely.
+     */
+    public byte[] digest() {
+        return digest.digest();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static MessageDigest copy(MessageDigest digest) {
+
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException cnse) {
+            throw new IllegalStateException("digest " + digest.getAlgorithm() + " cannot be copied", cnse);
+        }
+    }
+}
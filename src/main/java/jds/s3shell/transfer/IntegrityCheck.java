@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import jds.s3shell.util.Checksums;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the MD5 computed while a transfer streams against the object's ETag, and keeps track of how
+ * much time went into hashing so the cost can be reported next to the transfer time.
+ * <p>
+ * The ETag is the hex MD5 of the content for single PUT uploads and the MD5 of the concatenated binary
+ * part MD5s followed by "-N" for multipart uploads. KMS and customer key encryption produce ETags that are
+ * not MD5 based; those objects are not verified.
+ *
+ * @author jsvede
+ */
+public class IntegrityCheck {
+
+    private static final Pattern MULTIPART_ETAG = Pattern.compile("[0-9a-fA-F]{32}-(\\d+)");
+
+    private final AtomicLong digestNanos = new AtomicLong();
+
+    private final long start = System.nanoTime();
+
+    public IntegrityCheck() {}
+
+    /**
+     * @return true if an object with this ETag and encryption can be verified by MD5.
+     */
+    public static boolean canVerify(String etag, String sseAlgorithm, String sseCustomerAlgorithm) {
+
+        if("aws:kms".equals(sseAlgorithm) || sseCustomerAlgorithm != null) {
+            return false;
+        }
+        String normalized = normalize(etag);
+        return Checksums.isPlainMd5(normalized) || MULTIPART_ETAG.matcher(normalized).matches();
+    }
+
+    /**
+     * @return the number of parts in a multipart ETag, or 0 for a plain MD5 ETag.
+     */
+    public static int partCount(String etag) {
+
+        String normalized = normalize(etag);
+        if(!MULTIPART_ETAG.matcher(normalized).matches()) {
+            return 0;
+        }
+        return Integer.parseInt(normalized.substring(normalized.indexOf('-') + 1));
+    }
+
+    /**
+     * @param partDigests - the binary MD5 of every part, in part order.
+     * @return the ETag S3 assigns to a multipart upload with these parts.
+     */
+    public static String multipartEtag(byte[][] partDigests) {
+
+        MessageDigest digest = Checksums.newMd5();
+        for(byte[] partDigest : partDigests) {
+            digest.update(partDigest);
+        }
+        return Checksums.toHex(digest.digest()) + "-" + partDigests.length;
+    }
+
+    public void recordDigestTime(long nanos) {
+        digestNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @throws IOException if {@code actual} does not match the {@code expected} ETag.
+     */
+    public void verify(String key, String expected, String actual) throws IOException {
+
+        if(!normalize(expected).equalsIgnoreCase(normalize(actual))) {
+            throw new IOException("checksum mismatch for " + key + ": expected " + normalize(expected) +
+                                  " but computed " + normalize(actual));
+        }
+    }
+
+    /**
+     * @return the time spent hashing compared with the time since this check was created.
+     */
+    public String describe() {
+
+        long hashMillis = digestNanos.get() / 1000000;
+        long totalMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        return "md5 verified; hashing took " + hashMillis + " ms of " + totalMillis + " ms (" +
+               String.format("%.1f", hashMillis * 100.0 / totalMillis) + "%)";
+    }
+
+    private static String normalize(String etag) {
+        return etag == null ? "" : etag.replace("\"", "");
+    }
+}
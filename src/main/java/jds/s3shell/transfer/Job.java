@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A transfer command running in the background. Messages the command would have printed are kept in a
+ * short log instead of being written to the console, and progress is read from the command's
+ * {@link Throttle}, so the shell prompt is never written to from a worker thread.
+ *
+ * @author jsvede
+ */
+public class Job {
+
+    public enum State { RUNNING, DONE, FAILED, KILLED }
+
+    private static final int LOG_LINES = 100;
+
+    private final int id;
+
+    private final String command;
+
+    private final long totalBytes;
+
+    private final Throttle throttle;
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final AtomicBoolean ended = new AtomicBoolean();
+
+    private final Deque<String> log = new ArrayDeque<>();
+
+    private final PrintStream out;
+
+    private volatile State state = State.RUNNING;
+
+    private volatile long endMillis;
+
+    private volatile String result;
+
+    private volatile Future<?> future;
+
+    /**
+     * @param totalBytes - the number of bytes the job will transfer, or -1 if it is not known up front.
+     */
+    Job(int id, String command, long totalBytes, Throttle throttle) {
+        this.id = id;
+        this.command = command;
+        this.totalBytes = totalBytes;
+        this.throttle = throttle;
+        try {
+            this.out = new PrintStream(new LogStream(), true, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            // every JVM supports UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the command's result message, or the failure, once the job has finished.
+     */
+    public String getResult() {
+        return result;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getBytes() {
+        return throttle.getBytes();
+    }
+
+    /**
+     * @return the average rate in bytes per second since the job started.
+     */
+    public long getRate() {
+
+        long end = state == State.RUNNING ? System.currentTimeMillis() : endMillis;
+        return getBytes() * 1000 / Math.max(1, end - startMillis);
+    }
+
+    /**
+     * @return the estimated seconds until the job completes, or -1 if it cannot be estimated.
+     */
+    public long getEtaSeconds() {
+
+        long rate = getRate();
+        if(state != State.RUNNING || totalBytes < 0 || rate == 0) {
+            return -1;
+        }
+        return Math.max(0, totalBytes - getBytes()) / rate;
+    }
+
+    /**
+     * @return the PrintStream the command writes its messages to.
+     */
+    public PrintStream getOut() {
+        return out;
+    }
+
+    /**
+     * @return the most recent lines the command printed.
+     */
+    public List<String> getLog() {
+
+        synchronized(log) {
+            return new ArrayList<>(log);
+        }
+    }
+
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * Block until the job has finished, including the clean up of a killed job.
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * Interrupt the job's thread; transfers stop at their next read and leave any download checkpoint
+     * behind so the transfer can be resumed.
+     */
+    boolean kill() {
+
+        if(isFinished()) {
+            return false;
+        }
+        state = State.KILLED;
+        boolean cancelled = future.cancel(true);
+        if(cancelled && !started.get()) {
+            // a job cancelled before its thread picked it up never runs, so nothing else would finish it
+            finish(State.KILLED, "killed before it started");
+        }
+        return cancelled;
+    }
+
+    void start() {
+        started.set(true);
+    }
+
+    void finish(State finalState, String message) {
+
+        if(!ended.compareAndSet(false, true)) {
+            return;
+        }
+        if(state != State.KILLED) {
+            state = finalState;
+        }
+        result = message;
+        endMillis = System.currentTimeMillis();
+        out.flush();
+        finished.countDown();
+    }
+
+    /**
+     * Splits the command's output into lines and keeps the last {@value #LOG_LINES} of them. The bytes of a line
+     * are collected as written and decoded once the line ends, so multi-byte characters survive.
+     */
+    private class LogStream extends OutputStream {
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+
+            synchronized(log) {
+                if(b == '\n') {
+                    flushLine();
+                } else if(b != '\r') {
+                    line.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+
+            synchronized(log) {
+                if(line.size() > 0) {
+                    flushLine();
+                }
+            }
+        }
+
+        private void flushLine() {
+
+            if(log.size() == LOG_LINES) {
+                log.removeFirst();
+            }
+            log.addLast(new String(line.toByteArray(), StandardCharsets.UTF_8));
+            line.reset();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs transfer commands as background jobs so the shell stays usable while they run. Each job gets a
+ * thread of its own; the transfer itself still uses the worker pools of the engines.
+ *
+ * @author jsvede
+ */
+@Component
+public class JobManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobManager.class);
+
+    /**
+     * The work a job does; it writes its messages to {@code out} and returns the command's result.
+     */
+    public interface Task {
+        String run(PrintStream out) throws Exception;
+    }
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+
+    private final Queue<Job> unreported = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "s3shell-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public JobManager() {}
+
+    /**
+     * Start {@code task} in the background.
+     *
+     * @param command - the command line shown by the jobs command.
+     * @param totalBytes - the bytes the job will transfer, or -1 if unknown.
+     * @param throttle - the throttle the job's transfers read through, used to report progress.
+     * @return the new job.
+     */
+    public Job submit(String command, long totalBytes, Throttle throttle, final Task task) {
+
+        final Job job = new Job(nextId.getAndIncrement(), command, totalBytes, throttle);
+        jobs.put(job.getId(), job);
+        job.setFuture(executor.submit(() -> {
+            job.start();
+            try {
+                job.finish(Job.State.DONE, task.run(job.getOut()));
+            } catch (Exception e) {
+                logger.error("job " + job.getId() + " failed: " + e.getMessage(), e);
+                job.finish(Job.State.FAILED, e.getMessage());
+            } catch (Error e) {
+                job.finish(Job.State.FAILED, e.toString());
+                throw e;
+            } finally {
+                unreported.add(job);
+            }
+        }));
+        return job;
+    }
+
+    /**
+     * @return all jobs started in this session, in the order they were started.
+     */
+    public Collection<Job> getJobs() {
+        return jobs.values();
+    }
+
+    /**
+     * @return the job with {@code id}, or {@code null} if there is none.
+     */
+    public Job getJob(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return true if the job was running and has been told to stop.
+     */
+    public boolean kill(Job job) {
+        return job.kill();
+    }
+
+    /**
+     * Remove finished jobs from the list shown by the jobs command.
+     *
+     * @return the number of jobs removed.
+     */
+    public int clearFinished() {
+
+        int removed = 0;
+        for(Job job : jobs.values()) {
+            if(job.isFinished() && jobs.remove(job.getId()) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the jobs that have finished since the last call, so the shell can mention them once.
+     */
+    public List<Job> takeFinished() {
+
+        List<Job> finished = new ArrayList<>();
+        Job job;
+        while((job = unreported.poll()) != null) {
+            finished.add(job);
+        }
+        return finished;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import jds.s3shell.listing.KeyOrder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a local directory tree and returns its files in the order S3 would list the equivalent keys.
+ * Each directory is read and sorted only when the walk reaches it, with directory names compared as
+ * "name/", so memory is bounded by the entries of the directories on the current path. Symbolic links are
+ * skipped, as they are by the {@code Files.walkFileTree} of put -r; following a link to a parent directory would
+ * otherwise walk the same tree again under ever longer keys.
+ *
+ * @author jsvede
+ */
+public class LocalTreeIterator implements Iterator<LocalTreeIterator.Entry> {
+
+    /**
+     * A local file with its key relative to the root of the walk.
+     */
+    public static class Entry {
+
+        private final String key;
+
+        private final File file;
+
+        Entry(String key, File file) {
+            this.key = key;
+            this.file = file;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+
+    private static class Frame {
+
+        private final String keyPrefix;
+
+        private final File[] children;
+
+        private int next;
+
+        Frame(String keyPrefix, File[] children) {
+            this.keyPrefix = keyPrefix;
+            this.children = children;
+        }
+    }
+
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    private Entry nextEntry;
+
+    public LocalTreeIterator(File root) {
+        push("", root);
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        while(nextEntry == null && !stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if(frame.next >= frame.children.length) {
+                stack.pop();
+                continue;
+            }
+            File child = frame.children[frame.next++];
+            String key = frame.keyPrefix + child.getName();
+            if(child.isDirectory()) {
+                push(key + "/", child);
+            } else if(child.isFile()) {
+                nextEntry = new Entry(key, child);
+            }
+        }
+        return nextEntry != null;
+    }
+
+    @Override
+    public Entry next() {
+
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+
+    private void push(String keyPrefix, File directory) {
+
+        File[] listed = directory.listFiles();
+        if(listed == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>(listed.length);
+        for(File child : listed) {
+            if(!Files.isSymbolicLink(child.toPath())) {
+                entries.add(child);
+            }
+        }
+        File[] children = entries.toArray(new File[0]);
+        String[] sortKeys = new String[children.length];
+        Integer[] order = new Integer[children.length];
+        for(int i = 0; i < children.length; i++) {
+            sortKeys[i] = children[i].isDirectory() ? children[i].getName() + "/" : children[i].getName();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> KeyOrder.compare(sortKeys[a], sortKeys[b]));
+        File[] sorted = new File[children.length];
+        for(int i = 0; i < order.length; i++) {
+            sorted[i] = children[order[i]];
+        }
+        stack.push(new Frame(keyPrefix, sorted));
+    }
+}
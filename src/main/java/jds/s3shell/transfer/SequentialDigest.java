@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import jds.s3shell.util.Checksums;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+
+/**
+ * Computes the MD5 of a file that is being written out of order by ranged download workers. It follows
+ * the contiguous run of completed parts from the start of the file, hashing each part as soon as the
+ * parts before it are done, while the data is still in the page cache. The download is only waiting
+ * on it for the last parts instead of re-reading the whole file afterwards.
+ *
+ * @author jsvede
+ */
+public class SequentialDigest implements Callable<String> {
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final long partSize;
+
+    private final int partCount;
+
+    private final BitSet completedParts;
+
+    private final IntegrityCheck check;
+
+    public SequentialDigest(FileChannel channel, long size, long partSize, BitSet completedParts, IntegrityCheck check) {
+        this.channel = channel;
+        this.size = size;
+        this.partSize = partSize;
+        this.partCount = (int) ((size + partSize - 1) / partSize);
+        this.completedParts = (BitSet) completedParts.clone();
+        this.check = check;
+    }
+
+    /**
+     * Record that {@code part} has been written.
+     */
+    public synchronized void complete(int part) {
+        completedParts.set(part);
+        notifyAll();
+    }
+
+    /**
+     * @return the hex MD5 of the file once every part has been hashed.
+     */
+    @Override
+    public String call() throws IOException, InterruptedException {
+
+        MessageDigest digest = Checksums.newMd5();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        for(int part = 0; part < partCount; part++) {
+            synchronized(this) {
+                while(!completedParts.get(part)) {
+                    wait();
+                }
+            }
+
+            long position = part * partSize;
+            long end = Math.min(size, position + partSize);
+            while(position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if(read == -1) {
+                    throw new IOException("local file is shorter than expected at offset " + position);
+                }
+                position += read;
+
+                long start = System.nanoTime();
+                digest.update(buffer.array(), 0, read);
+                check.recordDigestTime(System.nanoTime() - start);
+            }
+        }
+        return Checksums.toHex(digest.digest());
+    }
+}
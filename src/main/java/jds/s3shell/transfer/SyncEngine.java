@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.catalog.CatalogEntry;
+import jds.s3shell.listing.KeyOrder;
+import jds.s3shell.listing.ListingPaginator;
+import jds.s3shell.util.Checksums;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Synchronizes a local directory tree with a prefix. The local walk and the remote listing are both read
+ * in key order and merge-joined one entry at a time, so memory stays flat no matter how many keys the
+ * prefix holds. Only the entries that differ are handed to the transfer workers.
+ *
+ * @author jsvede
+ */
+@Component
+public class SyncEngine {
+
+    public enum Direction {
+        UP, DOWN
+    }
+
+    private enum Action {
+        UPLOAD, DOWNLOAD, DELETE_REMOTE, DELETE_LOCAL, COMPARE
+    }
+
+    /**
+     * One difference found by the merge-join.
+     */
+    private static class Change {
+
+        private final Action action;
+
+        private final String key;
+
+        private final File file;
+
+        private final S3ObjectSummary summary;
+
+        Change(Action action, String key, File file, S3ObjectSummary summary) {
+            this.action = action;
+            this.key = key;
+            this.file = file;
+            this.summary = summary;
+        }
+    }
+
+    @Autowired
+    private UploadEngine uploadEngine;
+
+    @Autowired
+    private DownloadEngine downloadEngine;
+
+    @Autowired
+    private TransferSettings settings;
+
+    public SyncEngine() {}
+
+    /**
+     * Make {@code prefix} match {@code localRoot} (direction up) or {@code localRoot} match {@code prefix}
+     * (direction down). Entries are considered different when their sizes differ or the source is newer
+     * than the destination; with {@code checksum} set, entries of equal size are compared by MD5 against
+     * the ETag instead when the ETag is a plain MD5.
+     *
+     * @param delete - true to delete destination entries that do not exist at the source.
+     * @param onUploaded - called with each object once it is uploaded; may be {@code null}.
+     * @param onDeleted - called with the key of each remote object once it is deleted; may be {@code null}.
+     * @param throttle - the bandwidth limits transfers read against.
+     * @return a summary of what was transferred.
+     * @throws Exception if the walk or the listing fails.
+     */
+    public String sync(final AmazonS3 client, final String bucketName, final File localRoot, String prefix,
+                       final Direction direction, final boolean delete, final boolean checksum,
+                       final Consumer<CatalogEntry> onUploaded, final Consumer<List<String>> onDeleted,
+                       final PrintStream out, final Throttle throttle) throws Exception {
+
+        final String keyPrefix = prefix.length() == 0 || prefix.endsWith("/") ? prefix : prefix + "/";
+        final String canonicalRoot = localRoot.getCanonicalPath() + File.separator;
+        final AtomicLong transferred = new AtomicLong();
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong unchanged = new AtomicLong();
+        final long start = System.currentTimeMillis();
+
+        WorkQueue<Change> queue = new WorkQueue<>("s3shell-sync", settings.getFileConcurrency(), settings.getQueueDepth());
+        List<WorkQueue.Failure<Change>> failures = queue.run(sink -> {
+            Iterator<LocalTreeIterator.Entry> local = new LocalTreeIterator(localRoot);
+            ListingPaginator remotePages = new ListingPaginator(client, new ListObjectsV2Request()
+                    .withBucketName(bucketName).withPrefix(keyPrefix), settings.getListingPrefetch());
+            try {
+                Iterator<S3ObjectSummary> remote = remotePages.iterator();
+
+                LocalTreeIterator.Entry localEntry = local.hasNext() ? local.next() : null;
+                S3ObjectSummary remoteEntry = nextObject(remote);
+                while(localEntry != null || remoteEntry != null) {
+                    int order;
+                    if(localEntry == null) {
+                        order = 1;
+                    } else if(remoteEntry == null) {
+                        order = -1;
+                    } else {
+                        order = KeyOrder.compare(localEntry.getKey(), remoteEntry.getKey().substring(keyPrefix.length()));
+                    }
+
+                    if(order < 0) {
+                        if(direction == Direction.UP) {
+                            sink.put(new Change(Action.UPLOAD, localEntry.getKey(), localEntry.getFile(), null));
+                        } else if(delete) {
+                            sink.put(new Change(Action.DELETE_LOCAL, localEntry.getKey(), localEntry.getFile(), null));
+                        }
+                        localEntry = local.hasNext() ? local.next() : null;
+                    } else if(order > 0) {
+                        String key = remoteEntry.getKey().substring(keyPrefix.length());
+                        if(direction == Direction.DOWN) {
+                            sink.put(new Change(Action.DOWNLOAD, key, new File(localRoot, key), remoteEntry));
+                        } else if(delete) {
+                            sink.put(new Change(Action.DELETE_REMOTE, key, null, remoteEntry));
+                        }
+                        remoteEntry = nextObject(remote);
+                    } else {
+                        File file = localEntry.getFile();
+                        if(file.length() != remoteEntry.getSize()) {
+                            sink.put(new Change(direction == Direction.UP ? Action.UPLOAD : Action.DOWNLOAD,
+                                                localEntry.getKey(), file, remoteEntry));
+                        } else if(checksum && Checksums.isPlainMd5(remoteEntry.getETag())) {
+                            sink.put(new Change(Action.COMPARE, localEntry.getKey(), file, remoteEntry));
+                        } else if(sourceIsNewer(file, remoteEntry, direction)) {
+                            sink.put(new Change(direction == Direction.UP ? Action.UPLOAD : Action.DOWNLOAD,
+                                                localEntry.getKey(), file, remoteEntry));
+                        } else {
+                            unchanged.incrementAndGet();
+                        }
+                        localEntry = local.hasNext() ? local.next() : null;
+                        remoteEntry = nextObject(remote);
+                    }
+                }
+            } finally {
+                remotePages.close();
+            }
+        }, change -> {
+            Action action = change.action;
+            if(action == Action.COMPARE) {
+                if(Checksums.md5Hex(change.file).equals(change.summary.getETag())) {
+                    unchanged.incrementAndGet();
+                    return;
+                }
+                action = direction == Direction.UP ? Action.UPLOAD : Action.DOWNLOAD;
+            }
+
+            switch(action) {
+                case UPLOAD:
+                    long size = change.file.length();
+                    String etag = uploadEngine.upload(client, bucketName, change.file, keyPrefix + change.key,
+                                                      null, throttle);
+                    if(onUploaded != null) {
+                        onUploaded.accept(new CatalogEntry(keyPrefix + change.key, size, System.currentTimeMillis(),
+                                                           etag));
+                    }
+                    transferred.incrementAndGet();
+                    bytes.addAndGet(size);
+                    out.println("uploaded " + change.key);
+                    break;
+                case DOWNLOAD:
+                    if(!change.file.getCanonicalPath().startsWith(canonicalRoot)) {
+                        throw new IOException("key " + change.summary.getKey() + " would be written outside of " + canonicalRoot);
+                    }
+                    downloadEngine.download(client, bucketName, change.summary, change.file.getPath(), out, null, throttle);
+                    change.file.setLastModified(change.summary.getLastModified().getTime());
+                    transferred.incrementAndGet();
+                    bytes.addAndGet(change.summary.getSize());
+                    out.println("downloaded " + change.key);
+                    break;
+                case DELETE_REMOTE:
+                    client.deleteObject(bucketName, change.summary.getKey());
+                    if(onDeleted != null) {
+                        onDeleted.accept(Collections.singletonList(change.summary.getKey()));
+                    }
+                    deleted.incrementAndGet();
+                    out.println("deleted remote " + change.key);
+                    break;
+                case DELETE_LOCAL:
+                    if(!change.file.delete()) {
+                        throw new IOException("unable to delete " + change.file);
+                    }
+                    deleted.incrementAndGet();
+                    out.println("deleted local " + change.key);
+                    break;
+                default:
+                    break;
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for(WorkQueue.Failure<Change> failure : failures) {
+            sb.append("failed ").append(failure.getItem().key).append(": ")
+              .append(failure.getException().getMessage()).append("\n");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        sb.append("Transferred ").append(transferred.get()).append(" files (")
+          .append(FileUtils.byteCountToDisplaySize(bytes.get())).append("), deleted ").append(deleted.get())
+          .append(", unchanged ").append(unchanged.get()).append(" in ").append(elapsed / 1000.0).append("s");
+        if(queue.getFailureCount() > 0) {
+            sb.append("; ").append(queue.getFailureCount()).append(" failed");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compares modification times at one second resolution because many file systems store no more.
+     */
+    private static boolean sourceIsNewer(File file, S3ObjectSummary summary, Direction direction) {
+
+        long localSeconds = file.lastModified() / 1000;
+        long remoteSeconds = summary.getLastModified().getTime() / 1000;
+        return direction == Direction.UP ? localSeconds > remoteSeconds : remoteSeconds > localSeconds;
+    }
+
+    private static S3ObjectSummary nextObject(Iterator<S3ObjectSummary> remote) {
+
+        while(remote.hasNext()) {
+            S3ObjectSummary summary = remote.next();
+            if(!summary.getKey().endsWith("/") && !summary.getKey().endsWith("_$folder$")) {
+                return summary;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import jds.s3shell.util.TokenBucket;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The bandwidth limits that apply to one command: the shared global limit and, optionally, a limit of
+ * the command's own given with {@code --limit}. Every worker of the command takes from the same buckets.
+ * The throttle also counts the bytes read through it, which is how background jobs report their progress.
+ *
+ * @author jsvede
+ */
+public class Throttle {
+
+    private final TokenBucket[] buckets;
+
+    private final LongAdder bytes = new LongAdder();
+
+    Throttle(TokenBucket... buckets) {
+        this.buckets = buckets;
+    }
+
+    public boolean isLimited() {
+
+        for(TokenBucket bucket : buckets) {
+            if(bucket.isLimited()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of bytes read through this throttle so far, including bytes that were re-sent.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    void record(long count) {
+        bytes.add(count);
+    }
+
+    /**
+     * Take {@code bytes} from every bucket, sleeping as long as the slowest one requires.
+     */
+    public void acquire(long bytes) throws InterruptedException {
+
+        for(TokenBucket bucket : buckets) {
+            bucket.acquire(bytes);
+        }
+    }
+
+    /**
+     * @return {@code in} limited to this throttle's rate.
+     */
+    public InputStream wrap(InputStream in) {
+        return new ThrottledInputStream(in, this);
+    }
+}
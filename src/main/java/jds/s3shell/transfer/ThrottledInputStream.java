@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Pays for every byte read from the underlying stream with its {@link Throttle}. While a limit is set reads
+ * are capped at 64KB so that large buffers do not turn into long, bursty sleeps.
+ *
+ * @author jsvede
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private static final int MAX_LIMITED_READ = 64 * 1024;
+
+    private final Throttle throttle;
+
+    public ThrottledInputStream(InputStream in, Throttle throttle) {
+        super(in);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        int value = in.read();
+        if(value != -1) {
+            throttle.record(1);
+            pay(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+        boolean limited = throttle.isLimited();
+        int read = in.read(buffer, offset, limited ? Math.min(length, MAX_LIMITED_READ) : length);
+        if(read > 0) {
+            throttle.record(read);
+            if(limited) {
+                pay(read);
+            }
+        }
+        return read;
+    }
+
+    private void pay(int bytes) throws InterruptedIOException {
+
+        try {
+            throttle.acquire(bytes);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("transfer interrupted while throttled");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+/**
+ * The counts gathered by a dry run: how many objects and bytes a bulk command would touch and how many
+ * requests of each type it would send. Built by {@link TransferPlanner}, which also estimates its duration.
+ *
+ * @author jsvede
+ */
+public class TransferPlan {
+
+    /**
+     * The S3 operations a bulk command sends.
+     */
+    public enum Request {
+
+        LIST("ListObjectsV2"),
+        HEAD("HeadObject"),
+        GET("GetObject"),
+        PUT("PutObject"),
+        COPY("CopyObject"),
+        CREATE_MULTIPART("CreateMultipartUpload"),
+        UPLOAD_PART("UploadPart"),
+        UPLOAD_PART_COPY("UploadPartCopy"),
+        COMPLETE_MULTIPART("CompleteMultipartUpload"),
+        DELETE("DeleteObjects");
+
+        private final String operation;
+
+        Request(String operation) {
+            this.operation = operation;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+    }
+
+    /**
+     * The bulk commands that can be planned.
+     */
+    public enum Kind {
+        DELETE, GET, PUT, COPY, MOVE
+    }
+
+    private final Kind kind;
+
+    private final long[] requests = new long[Request.values().length];
+
+    private long objects;
+
+    private long bytes;
+
+    private long largest;
+
+    private long listingMillis;
+
+    public TransferPlan(Kind kind) {
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public void addRequests(Request request, long count) {
+        requests[request.ordinal()] += count;
+    }
+
+    public long getRequests(Request request) {
+        return requests[request.ordinal()];
+    }
+
+    /**
+     * @return the number of requests of every type.
+     */
+    public long getTotalRequests() {
+
+        long total = 0;
+        for(long count : requests) {
+            total += count;
+        }
+        return total;
+    }
+
+    public void addObject(long size) {
+
+        objects++;
+        bytes += size;
+        largest = Math.max(largest, size);
+    }
+
+    public long getObjects() {
+        return objects;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getLargest() {
+        return largest;
+    }
+
+    /**
+     * @param listingMillis - how long reading the listing or walking the local directory took.
+     */
+    public void setListingMillis(long listingMillis) {
+        this.listingMillis = listingMillis;
+    }
+
+    public long getListingMillis() {
+        return listingMillis;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import jds.s3shell.listing.ObjectPages;
+import jds.s3shell.util.ByteSizes;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * Works out what rm, get -r, put -r, cp -r and mv -r would do without doing it. The listing, or the local
+ * directory walk for put, is streamed and each object is counted the way the engine that runs the command
+ * would split it into requests, using the current settings. Nothing is written or deleted.
+ * <p>
+ * The duration estimate is rough: requests take as long as the listing's own requests took on average,
+ * each connection moves {@value #STREAM_BYTES_PER_SECOND_MB}MB/s unless the bandwidth limit is lower, S3
+ * copies {@value #COPY_BYTES_PER_SECOND_MB}MB/s per copy request and deletes take about a millisecond per key.
+ *
+ * @author jsvede
+ */
+@Component
+public class TransferPlanner {
+
+    private static final long STREAM_BYTES_PER_SECOND_MB = 25;
+
+    private static final long COPY_BYTES_PER_SECOND_MB = 100;
+
+    private static final double DELETE_MILLIS_PER_KEY = 1.0;
+
+    // used for put -r, which lists nothing to measure the request latency with
+    private static final long DEFAULT_REQUEST_MILLIS = 50;
+
+    @Autowired
+    private TransferSettings settings;
+
+    @Autowired
+    private UploadEngine uploadEngine;
+
+    @Autowired
+    private CopyEngine copyEngine;
+
+    @Autowired
+    private BandwidthGovernor governor;
+
+    public TransferPlanner() {}
+
+    /**
+     * Count the DeleteObjects requests rm would send for {@code pages}.
+     */
+    public TransferPlan planDelete(ObjectPages pages) throws IOException {
+
+        TransferPlan plan = new TransferPlan(TransferPlan.Kind.DELETE);
+        read(pages, plan, summary -> true);
+        plan.addRequests(TransferPlan.Request.DELETE, batches(plan.getObjects()));
+        return plan;
+    }
+
+    /**
+     * Count the requests get -r would send for {@code pages}: one GET per object below download.threshold and
+     * one ranged GET per part above it, plus the HEAD that verifying a multipart ETag needs.
+     */
+    public TransferPlan planGet(ObjectPages pages) throws IOException {
+
+        final TransferPlan plan = new TransferPlan(TransferPlan.Kind.GET);
+        read(pages, plan, summary -> {
+            if(DownloadEngine.isFolderMarker(summary.getKey())) {
+                return false;
+            }
+            long size = summary.getSize();
+            if(size < settings.getDownloadThreshold()) {
+                plan.addRequests(TransferPlan.Request.GET, 1);
+            } else {
+                plan.addRequests(TransferPlan.Request.GET, parts(size, settings.getDownloadPartSize()));
+            }
+            if(settings.isVerify() && summary.getETag() != null && summary.getETag().contains("-")) {
+                plan.addRequests(TransferPlan.Request.HEAD, 1);
+            }
+            return true;
+        });
+        return plan;
+    }
+
+    /**
+     * Count the requests put -r would send for the files below {@code directory}.
+     */
+    public TransferPlan planPut(File directory) throws IOException {
+
+        final TransferPlan plan = new TransferPlan(TransferPlan.Kind.PUT);
+        long start = System.currentTimeMillis();
+        Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if(attributes.isRegularFile()) {
+                    long size = attributes.size();
+                    plan.addObject(size);
+                    if(size < settings.getUploadThreshold()) {
+                        plan.addRequests(TransferPlan.Request.PUT, 1);
+                    } else {
+                        plan.addRequests(TransferPlan.Request.CREATE_MULTIPART, 1);
+                        plan.addRequests(TransferPlan.Request.UPLOAD_PART, parts(size, uploadEngine.partSizeFor(size)));
+                        plan.addRequests(TransferPlan.Request.COMPLETE_MULTIPART, 1);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ioe) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        plan.setListingMillis(System.currentTimeMillis() - start);
+        return plan;
+    }
+
+    /**
+     * Count the requests cp -r, or mv -r with {@code move} set, would send for {@code pages}.
+     */
+    public TransferPlan planCopy(ObjectPages pages, boolean move) throws IOException {
+
+        final TransferPlan plan = new TransferPlan(move ? TransferPlan.Kind.MOVE : TransferPlan.Kind.COPY);
+        read(pages, plan, summary -> {
+            long size = summary.getSize();
+            if(size <= CopyEngine.MAX_SINGLE_COPY) {
+                plan.addRequests(TransferPlan.Request.COPY, 1);
+            } else {
+                plan.addRequests(TransferPlan.Request.HEAD, 1);
+                plan.addRequests(TransferPlan.Request.CREATE_MULTIPART, 1);
+                plan.addRequests(TransferPlan.Request.UPLOAD_PART_COPY, parts(size, copyEngine.partSizeFor(size)));
+                plan.addRequests(TransferPlan.Request.COMPLETE_MULTIPART, 1);
+            }
+            return true;
+        });
+        if(move) {
+            plan.addRequests(TransferPlan.Request.DELETE, batches(plan.getObjects()));
+        }
+        return plan;
+    }
+
+    /**
+     * @return the estimated duration of {@code plan} in seconds at the configured concurrency.
+     */
+    public long estimateSeconds(TransferPlan plan) {
+
+        long listPages = plan.getRequests(TransferPlan.Request.LIST);
+        double requestMillis = listPages > 0 ? Math.max(1.0, (double) plan.getListingMillis() / listPages)
+                                             : DEFAULT_REQUEST_MILLIS;
+
+        long deletes = plan.getRequests(TransferPlan.Request.DELETE);
+        long others = plan.getTotalRequests() - listPages - deletes;
+        double millis = others * requestMillis / settings.getFileConcurrency();
+        if(deletes > 0) {
+            millis += (deletes * requestMillis + plan.getObjects() * DELETE_MILLIS_PER_KEY)
+                      / settings.getDeleteConcurrency();
+        }
+
+        switch(plan.getKind()) {
+            case GET:
+                millis += plan.getBytes() * 1000.0 / streamRate(Math.max(settings.getFileConcurrency(),
+                                                                           settings.getDownloadConcurrency()));
+                break;
+            case PUT:
+                millis += plan.getBytes() * 1000.0 / streamRate(Math.max(settings.getFileConcurrency(),
+                                                                           settings.getUploadConcurrency()));
+                break;
+            case COPY:
+            case MOVE:
+                millis += plan.getBytes() * 1000.0 / (Math.max(settings.getFileConcurrency(),
+                                                               settings.getUploadConcurrency()) *
+                                                      COPY_BYTES_PER_SECOND_MB * ByteSizes.MB);
+                break;
+            default:
+                break;
+        }
+        // the listing runs alongside the work, so the slower of the two sets the pace
+        return (long) Math.ceil(Math.max(plan.getListingMillis(), millis) / 1000.0);
+    }
+
+    /**
+     * @return a report of {@code plan} for {@code command}.
+     */
+    public String describe(String command, TransferPlan plan) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("dry run of ").append(command).append("; nothing was changed\n");
+        sb.append("objects:  ").append(plan.getObjects()).append(" (")
+          .append(FileUtils.byteCountToDisplaySize(plan.getBytes())).append(", largest ")
+          .append(FileUtils.byteCountToDisplaySize(plan.getLargest())).append(")\n");
+        sb.append("requests: ").append(plan.getTotalRequests()).append("\n");
+        for(TransferPlan.Request request : TransferPlan.Request.values()) {
+            long count = plan.getRequests(request);
+            if(count > 0) {
+                sb.append("  ").append(request.getOperation()).append(" ").append(count).append("\n");
+            }
+        }
+        sb.append(plan.getKind() == TransferPlan.Kind.PUT ? "walk: " : "listing: ")
+          .append(plan.getListingMillis() / 1000.0).append("s\n");
+        sb.append("estimated duration: ").append(formatSeconds(estimateSeconds(plan)))
+          .append(" with transfer.fileConcurrency ").append(settings.getFileConcurrency());
+        if(plan.getRequests(TransferPlan.Request.DELETE) > 0) {
+            sb.append(", delete.concurrency ").append(settings.getDeleteConcurrency());
+        }
+        if(governor.getLimit() > 0 && (plan.getKind() == TransferPlan.Kind.GET || plan.getKind() == TransferPlan.Kind.PUT)) {
+            sb.append(", limit ").append(FileUtils.byteCountToDisplaySize(governor.getLimit())).append("/s");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Counts the requests for one object.
+     */
+    private interface ObjectVisitor {
+
+        /**
+         * @return false if the command would skip the object.
+         */
+        boolean visit(S3ObjectSummary summary);
+    }
+
+    private static void read(ObjectPages pages, TransferPlan plan, ObjectVisitor visitor) throws IOException {
+
+        long start = System.currentTimeMillis();
+        try {
+            List<S3ObjectSummary> page;
+            while((page = pages.nextSummaries()) != null) {
+                plan.addRequests(TransferPlan.Request.LIST, 1);
+                for(S3ObjectSummary summary : page) {
+                    if(visitor.visit(summary)) {
+                        plan.addObject(summary.getSize());
+                    }
+                }
+            }
+        } finally {
+            pages.close();
+        }
+        plan.setListingMillis(System.currentTimeMillis() - start);
+    }
+
+    private double streamRate(int streams) {
+
+        double rate = streams * STREAM_BYTES_PER_SECOND_MB * ByteSizes.MB;
+        long limit = governor.getLimit();
+        return limit > 0 ? Math.min(rate, limit) : rate;
+    }
+
+    private static long parts(long size, long partSize) {
+        return Math.max(1, (size + partSize - 1) / partSize);
+    }
+
+    private static long batches(long keys) {
+        return (keys + DeleteEngine.BATCH_SIZE - 1) / DeleteEngine.BATCH_SIZE;
+    }
+
+    static String formatSeconds(long seconds) {
+
+        if(seconds >= 3600) {
+            return seconds / 3600 + "h" + seconds % 3600 / 60 + "m";
+        }
+        return seconds / 60 + "m" + seconds % 60 + "s";
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.services.s3.internal.SkipMd5CheckStrategy;
+import jds.s3shell.util.ByteSizes;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the tunables used by the transfer and listing commands. Defaults come from application.properties and
+ * can be changed while the shell is running with the settings command.
+ *
+ * @author jsvede
+ */
+@Component
+public class TransferSettings {
+
+    // connections each S3 client may open; the SDK default of 50 would cap stat -r and parallel part transfers
+    public static final int MAX_CONNECTIONS = 256;
+
+    private volatile long downloadThreshold = 32 * ByteSizes.MB;
+
+    private volatile long downloadPartSize = 16 * ByteSizes.MB;
+
+    private volatile int downloadConcurrency = 8;
+
+    private volatile int downloadBufferSize = 64 * 1024;
+
+    private volatile int downloadMaxBufferSize = 4 * 1024 * 1024;
+
+    private volatile boolean downloadMemoryMapped = false;
+
+    private volatile long uploadThreshold = 64 * ByteSizes.MB;
+
+    private volatile long uploadPartSize = 0;
+
+    private volatile int uploadConcurrency = 8;
+
+    private volatile int uploadRetries = 3;
+
+    private volatile boolean verify = true;
+
+    private volatile int fileConcurrency = 8;
+
+    private volatile int queueDepth = 1000;
+
+    private volatile int deleteConcurrency = 8;
+
+    private volatile int statConcurrency = 64;
+
+    private volatile int listingPrefetch = 2;
+
+    private volatile int listingCacheTtl = 60;
+
+    private volatile int listingCacheKeys = 200000;
+
+    public TransferSettings() {}
+
+    public long getDownloadThreshold() {
+        return downloadThreshold;
+    }
+
+    @Value("${s3shell.download.threshold:32MB}")
+    public void setDownloadThreshold(String downloadThreshold) {
+        this.downloadThreshold = ByteSizes.parse(downloadThreshold);
+    }
+
+    public long getDownloadPartSize() {
+        return downloadPartSize;
+    }
+
+    @Value("${s3shell.download.partSize:16MB}")
+    public void setDownloadPartSize(String downloadPartSize) {
+        long partSize = ByteSizes.parse(downloadPartSize);
+        if(partSize < ByteSizes.MB) {
+            throw new IllegalArgumentException("download.partSize must be at least 1MB");
+        }
+        this.downloadPartSize = partSize;
+    }
+
+    public int getDownloadConcurrency() {
+        return downloadConcurrency;
+    }
+
+    @Value("${s3shell.download.concurrency:8}")
+    public void setDownloadConcurrency(String downloadConcurrency) {
+        this.downloadConcurrency = parsePositiveInt("download.concurrency", downloadConcurrency);
+    }
+
+    public int getDownloadBufferSize() {
+        return downloadBufferSize;
+    }
+
+    @Value("${s3shell.download.bufferSize:64KB}")
+    public void setDownloadBufferSize(String downloadBufferSize) {
+        this.downloadBufferSize = parseBufferSize("download.bufferSize", downloadBufferSize);
+    }
+
+    public int getDownloadMaxBufferSize() {
+        return downloadMaxBufferSize;
+    }
+
+    @Value("${s3shell.download.maxBufferSize:4MB}")
+    public void setDownloadMaxBufferSize(String downloadMaxBufferSize) {
+        this.downloadMaxBufferSize = parseBufferSize("download.maxBufferSize", downloadMaxBufferSize);
+    }
+
+    public boolean isDownloadMemoryMapped() {
+        return downloadMemoryMapped;
+    }
+
+    @Value("${s3shell.download.mmap:false}")
+    public void setDownloadMemoryMapped(String downloadMemoryMapped) {
+        this.downloadMemoryMapped = Boolean.parseBoolean(downloadMemoryMapped.trim());
+    }
+
+    public long getUploadThreshold() {
+        return uploadThreshold;
+    }
+
+    @Value("${s3shell.upload.threshold:64MB}")
+    public void setUploadThreshold(String uploadThreshold) {
+        long threshold = ByteSizes.parse(uploadThreshold);
+        if(threshold > 5 * ByteSizes.GB) {
+            throw new IllegalArgumentException("upload.threshold cannot exceed the 5GB single PUT limit");
+        }
+        this.uploadThreshold = threshold;
+    }
+
+    /**
+     * @return the configured multipart part size or 0 when it is chosen from the file size.
+     */
+    public long getUploadPartSize() {
+        return uploadPartSize;
+    }
+
+    @Value("${s3shell.upload.partSize:auto}")
+    public void setUploadPartSize(String uploadPartSize) {
+        if(uploadPartSize.trim().equalsIgnoreCase("auto")) {
+            this.uploadPartSize = 0;
+            return;
+        }
+        long partSize = ByteSizes.parse(uploadPartSize);
+        if(partSize < 5 * ByteSizes.MB || partSize > 5 * ByteSizes.GB) {
+            throw new IllegalArgumentException("upload.partSize must be auto or between 5MB and 5GB");
+        }
+        this.uploadPartSize = partSize;
+    }
+
+    public int getUploadConcurrency() {
+        return uploadConcurrency;
+    }
+
+    @Value("${s3shell.upload.concurrency:8}")
+    public void setUploadConcurrency(String uploadConcurrency) {
+        this.uploadConcurrency = parsePositiveInt("upload.concurrency", uploadConcurrency);
+    }
+
+    public int getUploadRetries() {
+        return uploadRetries;
+    }
+
+    @Value("${s3shell.upload.retries:3}")
+    public void setUploadRetries(String uploadRetries) {
+        this.uploadRetries = parsePositiveInt("upload.retries", uploadRetries);
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    @Value("${s3shell.transfer.verify:true}")
+    public void setVerify(String verify) {
+
+        this.verify = Boolean.parseBoolean(verify.trim());
+        // with verify on, transfers compute the MD5 themselves while streaming, so the SDK's second pass over the
+        // content is skipped; with it off the SDK keeps checking single part transfers. The SDK reads these
+        // properties on every request, so the change applies to the next transfer.
+        if(this.verify) {
+            System.setProperty(SkipMd5CheckStrategy.DISABLE_GET_OBJECT_MD5_VALIDATION_PROPERTY, "true");
+            System.setProperty(SkipMd5CheckStrategy.DISABLE_PUT_OBJECT_MD5_VALIDATION_PROPERTY, "true");
+        } else {
+            System.clearProperty(SkipMd5CheckStrategy.DISABLE_GET_OBJECT_MD5_VALIDATION_PROPERTY);
+            System.clearProperty(SkipMd5CheckStrategy.DISABLE_PUT_OBJECT_MD5_VALIDATION_PROPERTY);
+        }
+    }
+
+    public int getFileConcurrency() {
+        return fileConcurrency;
+    }
+
+    @Value("${s3shell.transfer.fileConcurrency:8}")
+    public void setFileConcurrency(String fileConcurrency) {
+        this.fileConcurrency = parsePositiveInt("transfer.fileConcurrency", fileConcurrency);
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Value("${s3shell.transfer.queueDepth:1000}")
+    public void setQueueDepth(String queueDepth) {
+        this.queueDepth = parsePositiveInt("transfer.queueDepth", queueDepth);
+    }
+
+    /**
+     * @return the number of DeleteObjects requests rm sends at once.
+     */
+    public int getDeleteConcurrency() {
+        return deleteConcurrency;
+    }
+
+    @Value("${s3shell.delete.concurrency:8}")
+    public void setDeleteConcurrency(String deleteConcurrency) {
+        this.deleteConcurrency = parsePositiveInt("delete.concurrency", deleteConcurrency);
+    }
+
+    /**
+     * @return the number of HEAD requests stat -r sends at once.
+     */
+    public int getStatConcurrency() {
+        return statConcurrency;
+    }
+
+    @Value("${s3shell.stat.concurrency:64}")
+    public void setStatConcurrency(String statConcurrency) {
+
+        int concurrency = parsePositiveInt("stat.concurrency", statConcurrency);
+        if(concurrency > MAX_CONNECTIONS) {
+            throw new IllegalArgumentException("stat.concurrency must be at most " + MAX_CONNECTIONS);
+        }
+        this.statConcurrency = concurrency;
+    }
+
+    /**
+     * @return the number of listing pages fetched ahead of the command consuming them; 0 for none.
+     */
+    public int getListingPrefetch() {
+        return listingPrefetch;
+    }
+
+    @Value("${s3shell.listing.prefetch:2}")
+    public void setListingPrefetch(String listingPrefetch) {
+
+        int depth = "0".equals(listingPrefetch.trim()) ? 0 : parsePositiveInt("listing.prefetch", listingPrefetch);
+        if(depth > 100) {
+            throw new IllegalArgumentException("listing.prefetch must be at most 100");
+        }
+        this.listingPrefetch = depth;
+    }
+
+    /**
+     * @return how long, in seconds, ls and lp reuse a listing; 0 turns the listing cache off.
+     */
+    public int getListingCacheTtl() {
+        return listingCacheTtl;
+    }
+
+    @Value("${s3shell.listing.cacheTtl:60}")
+    public void setListingCacheTtl(String listingCacheTtl) {
+        this.listingCacheTtl = "0".equals(listingCacheTtl.trim()) ? 0
+                             : parsePositiveInt("listing.cacheTtl", listingCacheTtl);
+    }
+
+    /**
+     * @return the number of keys and prefixes the listing cache holds before evicting the least recently used
+     *         listings.
+     */
+    public int getListingCacheKeys() {
+        return listingCacheKeys;
+    }
+
+    @Value("${s3shell.listing.cacheKeys:200000}")
+    public void setListingCacheKeys(String listingCacheKeys) {
+        this.listingCacheKeys = parsePositiveInt("listing.cacheKeys", listingCacheKeys);
+    }
+
+    /**
+     * @return the current settings keyed by the names accepted by {@link #set(String, String)}.
+     */
+    public Map<String, String> describe() {
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("download.threshold", FileUtils.byteCountToDisplaySize(downloadThreshold));
+        settings.put("download.partSize", FileUtils.byteCountToDisplaySize(downloadPartSize));
+        settings.put("download.concurrency", String.valueOf(downloadConcurrency));
+        settings.put("download.bufferSize", FileUtils.byteCountToDisplaySize(downloadBufferSize));
+        settings.put("download.maxBufferSize", FileUtils.byteCountToDisplaySize(downloadMaxBufferSize));
+        settings.put("download.mmap", String.valueOf(downloadMemoryMapped));
+        settings.put("upload.threshold", FileUtils.byteCountToDisplaySize(uploadThreshold));
+        settings.put("upload.partSize", uploadPartSize == 0 ? "auto" : FileUtils.byteCountToDisplaySize(uploadPartSize));
+        settings.put("upload.concurrency", String.valueOf(uploadConcurrency));
+        settings.put("upload.retries", String.valueOf(uploadRetries));
+        settings.put("transfer.verify", String.valueOf(verify));
+        settings.put("transfer.fileConcurrency", String.valueOf(fileConcurrency));
+        settings.put("transfer.queueDepth", String.valueOf(queueDepth));
+        settings.put("delete.concurrency", String.valueOf(deleteConcurrency));
+        settings.put("stat.concurrency", String.valueOf(statConcurrency));
+        settings.put("listing.prefetch", String.valueOf(listingPrefetch));
+        settings.put("listing.cacheTtl", String.valueOf(listingCacheTtl));
+        settings.put("listing.cacheKeys", String.valueOf(listingCacheKeys));
+        return settings;
+    }
+
+    /**
+     * Change a setting by name.
+     *
+     * @param name - one of the names returned by {@link #describe()}.
+     * @param value - the new value.
+     * @throws IllegalArgumentException if the name is unknown or the value is invalid.
+     */
+    public void set(String name, String value) {
+
+        switch(name) {
+            case "download.threshold": setDownloadThreshold(value); break;
+            case "download.partSize": setDownloadPartSize(value); break;
+            case "download.concurrency": setDownloadConcurrency(value); break;
+            case "download.bufferSize": setDownloadBufferSize(value); break;
+            case "download.maxBufferSize": setDownloadMaxBufferSize(value); break;
+            case "download.mmap": setDownloadMemoryMapped(value); break;
+            case "upload.threshold": setUploadThreshold(value); break;
+            case "upload.partSize": setUploadPartSize(value); break;
+            case "upload.concurrency": setUploadConcurrency(value); break;
+            case "upload.retries": setUploadRetries(value); break;
+            case "transfer.verify": setVerify(value); break;
+            case "transfer.fileConcurrency": setFileConcurrency(value); break;
+            case "transfer.queueDepth": setQueueDepth(value); break;
+            case "delete.concurrency": setDeleteConcurrency(value); break;
+            case "stat.concurrency": setStatConcurrency(value); break;
+            case "listing.prefetch": setListingPrefetch(value); break;
+            case "listing.cacheTtl": setListingCacheTtl(value); break;
+            case "listing.cacheKeys": setListingCacheKeys(value); break;
+            default: throw new IllegalArgumentException("Unknown setting " + name);
+        }
+    }
+
+    private static int parseBufferSize(String name, String value) {
+
+        long size = ByteSizes.parse(value);
+        if(size < 1024 || size > 64 * ByteSizes.MB) {
+            throw new IllegalArgumentException(name + " must be between 1KB and 64MB");
+        }
+        return (int) size;
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+
+        try {
+            int number = Integer.parseInt(value.trim());
+            if(number < 1) {
+                throw new IllegalArgumentException(name + " must be at least 1");
+            }
+            return number;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(name + " must be a number: " + value, nfe);
+        }
+    }
+}
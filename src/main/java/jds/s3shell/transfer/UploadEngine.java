@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import jds.s3shell.catalog.CatalogEntry;
+import jds.s3shell.util.ByteSizes;
+import jds.s3shell.util.Checksums;
+import jds.s3shell.util.TransferProgress;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Uploads local files. Files smaller than the configured threshold are sent with a single PUT; larger
+ * files become multipart uploads whose parts are read from the file and sent concurrently by a bounded
+ * pool of workers. Each part is retried on its own, and a multipart upload that cannot be completed is
+ * aborted so no orphaned parts are left in the bucket.
+ * <p>
+ * The MD5 of each file or part is computed as it is read for the request and compared with the ETag S3
+ * returns, so the content is read once; an upload whose ETag does not match is deleted and fails.
+ *
+ * @author jsvede
+ */
+@Component
+public class UploadEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadEngine.class);
+
+    private static final int PROGRESS_SEGMENTS = 64;
+
+    private static final int MAX_PARTS = 10000;
+
+    private static final long MIN_PART_SIZE = 5 * ByteSizes.MB;
+
+    private static final long AUTO_MIN_PART_SIZE = 8 * ByteSizes.MB;
+
+    private static final int AUTO_TARGET_PARTS = 1000;
+
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private static final long ABORT_WAIT_SECONDS = 30;
+
+    @Autowired
+    private TransferSettings settings;
+
+    @Autowired
+    private BandwidthGovernor governor;
+
+    public UploadEngine() {}
+
+    /**
+     * Upload {@code file} to {@code key}.
+     *
+     * @param client - the client for the destination bucket.
+     * @param bucketName - the name of the destination bucket.
+     * @param file - the local file to upload.
+     * @param key - the destination key.
+     * @param progressOut - the PrintStream to draw the progress bar on; {@code null} for no progress bar.
+     * @return the ETag of the new object.
+     * @throws Exception if the upload fails.
+     */
+    public String upload(AmazonS3 client, String bucketName, File file, String key, PrintStream progressOut)
+            throws Exception {
+
+        return upload(client, bucketName, file, key, progressOut, governor.newThrottle(null));
+    }
+
+    /**
+     * Upload {@code file} to {@code key}, reading it no faster than {@code throttle} allows.
+     *
+     * @return the ETag of the new object.
+     * @throws Exception if the upload fails.
+     */
+    public String upload(AmazonS3 client, String bucketName, File file, String key, PrintStream progressOut,
+                         Throttle throttle) throws Exception {
+
+        long size = file.length();
+        TransferProgress progress = new TransferProgress(size, PROGRESS_SEGMENTS, progressOut);
+
+        IntegrityCheck check = new IntegrityCheck();
+        String etag;
+        if(size < settings.getUploadThreshold()) {
+            etag = uploadSingle(client, bucketName, file, key, progress, throttle, check);
+        } else {
+            etag = uploadMultipart(client, bucketName, file, key, progress, throttle, check);
+        }
+
+        progress.complete();
+        if(progressOut != null && settings.isVerify()) {
+            progressOut.println(check.describe());
+        }
+        return etag;
+    }
+
+    private String uploadSingle(AmazonS3 client, String bucketName, File file, String key, TransferProgress progress,
+                                Throttle throttle, IntegrityCheck check) throws Exception {
+
+        long size = file.length();
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(size);
+
+        PutObjectResult result;
+        byte[] digest;
+        try(FileRegionInputStream in = new FileRegionInputStream(file, 0, size, Checksums.newMd5(), check)) {
+            PutObjectRequest request = new PutObjectRequest(bucketName, key, throttle.wrap(in), metadata);
+            request.setGeneralProgressListener(listener(progress, new AtomicLong()));
+            result = client.putObject(request);
+            digest = in.digest();
+        }
+
+        if(settings.isVerify() &&
+           IntegrityCheck.canVerify(result.getETag(), result.getSSEAlgorithm(), result.getSSECustomerAlgorithm())) {
+            verifyOrDelete(client, bucketName, key, check, result.getETag(), Checksums.toHex(digest));
+        }
+        return result.getETag();
+    }
+
+    /**
+     * Compare the ETag of a new object with the one computed locally, deleting the object if they differ.
+     */
+    private void verifyOrDelete(AmazonS3 client, String bucketName, String key, IntegrityCheck check, String etag,
+                                String actual) throws IOException {
+
+        try {
+            check.verify(key, etag, actual);
+        } catch (IOException ioe) {
+            client.deleteObject(bucketName, key);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Upload every regular file below {@code directory} to keys under {@code prefix}. The directory walk
+     * feeds a bounded queue that {@code transfer.fileConcurrency} upload workers drain, so uploads start
+     * as soon as the first file is found. Each file goes through {@link #upload}, which picks a single PUT
+     * or a multipart upload from its size.
+     *
+     * @param onUploaded - called with each object once it is uploaded; may be {@code null}.
+     * @return a summary with file counts and aggregate throughput.
+     * @throws Exception if the directory walk fails.
+     */
+    public String uploadDirectory(final AmazonS3 client, final String bucketName, File directory, String prefix,
+                                  final Consumer<CatalogEntry> onUploaded, final PrintStream out,
+                                  final Throttle throttle) throws Exception {
+
+        final Path root = directory.toPath();
+        final String keyPrefix = prefix.length() == 0 || prefix.endsWith("/") ? prefix : prefix + "/";
+        final AtomicLong fileCount = new AtomicLong();
+        final AtomicLong byteCount = new AtomicLong();
+        final AtomicLong skippedCount = new AtomicLong();
+        final long start = System.currentTimeMillis();
+
+        WorkQueue<Path> queue = new WorkQueue<>("s3shell-put", settings.getFileConcurrency(), settings.getQueueDepth());
+        List<WorkQueue.Failure<Path>> failures = queue.run(sink -> {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if(!attributes.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        sink.put(file);
+                        return FileVisitResult.CONTINUE;
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ioe) {
+                    skippedCount.incrementAndGet();
+                    out.println("skipped " + file + ": " + ioe.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if(Thread.interrupted()) {
+                throw new InterruptedException("upload of " + root + " was interrupted");
+            }
+        }, file -> {
+            String key = keyPrefix + keyFor(root.relativize(file));
+            long size = Files.size(file);
+            String etag = upload(client, bucketName, file.toFile(), key, null, throttle);
+            if(onUploaded != null) {
+                onUploaded.accept(new CatalogEntry(key, size, System.currentTimeMillis(), etag));
+            }
+            fileCount.incrementAndGet();
+            byteCount.addAndGet(size);
+            out.println("uploaded " + key + " (" + FileUtils.byteCountToDisplaySize(size) + ")");
+        });
+
+        StringBuilder sb = new StringBuilder();
+        for(WorkQueue.Failure<Path> failure : failures) {
+            sb.append("failed ").append(failure.getItem()).append(": ")
+              .append(failure.getException().getMessage()).append("\n");
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        sb.append("Uploaded ").append(fileCount.get()).append(" files, ")
+          .append(FileUtils.byteCountToDisplaySize(byteCount.get())).append(" in ").append(elapsed / 1000.0)
+          .append("s (").append(fileCount.get() * 1000 / elapsed).append(" files/s, ")
+          .append(FileUtils.byteCountToDisplaySize(byteCount.get() * 1000 / elapsed)).append("/s)");
+        if(queue.getFailureCount() > 0) {
+            sb.append("; ").append(queue.getFailureCount()).append(" failed");
+        }
+        if(skippedCount.get() > 0) {
+            sb.append("; ").append(skippedCount.get()).append(" unreadable");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the relative path joined with '/' regardless of the local file system's separator.
+     */
+    static String keyFor(Path relativePath) {
+
+        StringBuilder key = new StringBuilder();
+        for(Path element : relativePath) {
+            if(key.length() > 0) {
+                key.append('/');
+            }
+            key.append(element.toString());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Choose the part size for a file. With upload.partSize set to auto, parts are at least 8MB and grow so
+     * that a file is split into about 1000 parts; in any case parts are large enough to stay within the
+     * 10000 part limit.
+     *
+     * @param fileSize - the size of the file being uploaded.
+     * @return the part size in bytes.
+     */
+    public long partSizeFor(long fileSize) {
+
+        long partSize = settings.getUploadPartSize();
+        if(partSize == 0) {
+            partSize = Math.max(AUTO_MIN_PART_SIZE, roundUpToMegabytes(fileSize / AUTO_TARGET_PARTS));
+        }
+        long smallestAllowed = roundUpToMegabytes((fileSize + MAX_PARTS - 1) / MAX_PARTS);
+        return Math.max(MIN_PART_SIZE, Math.max(partSize, smallestAllowed));
+    }
+
+    private String uploadMultipart(final AmazonS3 client, final String bucketName, final File file, final String key,
+                                   final TransferProgress progress, final Throttle throttle,
+                                   final IntegrityCheck check) throws Exception {
+
+        final long size = file.length();
+        final long partSize = partSizeFor(size);
+        final int partCount = (int) ((size + partSize - 1) / partSize);
+        final byte[][] partDigests = new byte[partCount][];
+
+        final String uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key))
+                                      .getUploadId();
+        boolean completed = false;
+        ExecutorService pool = Workers.newPool("s3shell-upload", Math.min(settings.getUploadConcurrency(), partCount));
+        try {
+            List<Future<PartETag>> parts = new ArrayList<>(partCount);
+            for(int part = 1; part <= partCount; part++) {
+                final int partNumber = part;
+                final long offset = (part - 1) * partSize;
+                final long length = Math.min(partSize, size - offset);
+                parts.add(pool.submit(() -> uploadPart(client, bucketName, key, uploadId, file, partNumber, offset,
+                                                       length, progress, throttle, check, partDigests)));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(partCount);
+            for(Future<PartETag> part : parts) {
+                try {
+                    partETags.add(part.get());
+                } catch (ExecutionException ee) {
+                    throw Workers.unwrap(ee);
+                }
+            }
+
+            CompleteMultipartUploadResult result = client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            completed = true;
+
+            if(settings.isVerify() &&
+               IntegrityCheck.canVerify(result.getETag(), result.getSSEAlgorithm(), result.getSSECustomerAlgorithm())) {
+                verifyOrDelete(client, bucketName, key, check, result.getETag(), IntegrityCheck.multipartEtag(partDigests));
+            }
+            return result.getETag();
+        } finally {
+            pool.shutdownNow();
+            if(!completed) {
+                abort(client, bucketName, key, uploadId, pool);
+            }
+        }
+    }
+
+    /**
+     * Waits for in-flight parts to stop before aborting; a part that finishes after the abort would
+     * otherwise be stored and billed without ever being visible.
+     */
+    private void abort(AmazonS3 client, String bucketName, String key, String uploadId, ExecutorService pool) {
+
+        try {
+            pool.awaitTermination(ABORT_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+        } catch (AmazonClientException ace) {
+            logger.error("unable to abort multipart upload " + uploadId + " for " + key, ace);
+        }
+    }
+
+    /**
+     * Upload one part, retrying it on transient errors and when the ETag S3 returns for it does not match
+     * the part's MD5. The part's binary MD5 is stored in {@code partDigests}.
+     */
+    private PartETag uploadPart(AmazonS3 client, String bucketName, String key, String uploadId, File file,
+                                int partNumber, long offset, long length, TransferProgress progress,
+                                Throttle throttle, IntegrityCheck check, byte[][] partDigests) throws Exception {
+
+        for(int attempt = 0; ; attempt++) {
+            AtomicLong sent = new AtomicLong();
+            try(FileRegionInputStream in = new FileRegionInputStream(file, offset, length, Checksums.newMd5(), check)) {
+                UploadPartRequest request = new UploadPartRequest().withBucketName(bucketName).withKey(key)
+                                                                   .withUploadId(uploadId).withPartNumber(partNumber)
+                                                                   .withInputStream(throttle.wrap(in))
+                                                                   .withPartSize(length);
+                request.setGeneralProgressListener(listener(progress, sent));
+                try {
+                    UploadPartResult result = client.uploadPart(request);
+                    byte[] digest = in.digest();
+                    partDigests[partNumber - 1] = digest;
+
+                    String md5 = Checksums.toHex(digest);
+                    if(!settings.isVerify() || !IntegrityCheck.canVerify(result.getETag(), result.getSSEAlgorithm(),
+                                                                         result.getSSECustomerAlgorithm()) ||
+                       md5.equalsIgnoreCase(result.getETag().replace("\"", ""))) {
+                        return result.getPartETag();
+                    }
+                    if(attempt >= settings.getUploadRetries()) {
+                        throw new IOException("checksum mismatch for part " + partNumber + " of " + key + ": S3 stored " +
+                                              result.getETag() + " but the part's MD5 is " + md5);
+                    }
+                    progress.add(-sent.get());
+                    logger.warn("retrying part " + partNumber + " of " + key + ": checksum mismatch");
+                } catch (AmazonClientException ace) {
+                    progress.add(-sent.get());
+                    if(attempt >= settings.getUploadRetries() || !isRetryable(ace) ||
+                       Thread.currentThread().isInterrupted()) {
+                        throw ace;
+                    }
+                    logger.warn("retrying part " + partNumber + " of " + key + ": " + ace.getMessage());
+                    Thread.sleep(RETRY_BACKOFF_MILLIS * (attempt + 1));
+                }
+            }
+        }
+    }
+
+    static boolean isRetryable(AmazonClientException ace) {
+
+        if(ace instanceof AmazonServiceException) {
+            int status = ((AmazonServiceException) ace).getStatusCode();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return ace.isRetryable();
+    }
+
+    /**
+     * Feeds the SDK's byte transfer events into {@code progress}; {@code sent} tracks this request's share so
+     * it can be taken back out when the request is retried.
+     */
+    static ProgressListener listener(final TransferProgress progress, final AtomicLong sent) {
+
+        return event -> {
+            if(event.getEventType() == ProgressEventType.REQUEST_BYTE_TRANSFER_EVENT) {
+                sent.addAndGet(event.getBytesTransferred());
+                progress.add(event.getBytesTransferred());
+            } else if(event.getEventType() == ProgressEventType.HTTP_REQUEST_CONTENT_RESET_EVENT) {
+                sent.addAndGet(-event.getBytes());
+                progress.add(-event.getBytes());
+            }
+        };
+    }
+
+    private static long roundUpToMegabytes(long bytes) {
+        return (bytes + ByteSizes.MB - 1) / ByteSizes.MB * ByteSizes.MB;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A producer/consumer pipeline with a bounded queue. The producer runs on the calling thread and hands
+ * items to a fixed pool of workers as soon as it finds them, so work starts before the producer is done
+ * and memory is bounded by the queue capacity instead of the number of items.
+ * <p>
+ * A failing item does not stop the pipeline; failures are collected and returned when it finishes. A
+ * failing producer stops the workers once the items already queued are processed. An Error in a worker is
+ * rethrown from {@link #run}.
+ *
+ * @author jsvede
+ */
+public class WorkQueue<T> {
+
+    private static final int MAX_RECORDED_FAILURES = 100;
+
+    private static final Object END = new Object();
+
+    private static final long OFFER_TIMEOUT_MILLIS = 200;
+
+    /**
+     * Finds the items to work on and passes each one to {@code sink}.
+     */
+    public interface Producer<T> {
+        void produce(Sink<T> sink) throws Exception;
+    }
+
+    public interface Sink<T> {
+        void put(T item) throws InterruptedException;
+    }
+
+    /**
+     * Processes a single item; called concurrently from the worker threads.
+     */
+    public interface Worker<T> {
+        void process(T item) throws Exception;
+    }
+
+    /**
+     * An item that could not be processed.
+     */
+    public static class Failure<T> {
+
+        private final T item;
+
+        private final Exception exception;
+
+        Failure(T item, Exception exception) {
+            this.item = item;
+            this.exception = exception;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+    }
+
+    private final String name;
+
+    private final int workers;
+
+    private final int capacity;
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final List<Failure<T>> failures = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param name - the prefix for the worker thread names.
+     * @param workers - the number of worker threads.
+     * @param capacity - the maximum number of items waiting in the queue.
+     */
+    public WorkQueue(String name, int workers, int capacity) {
+        this.name = name;
+        this.workers = workers;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Run the pipeline to completion.
+     *
+     * @return the failed items, at most the first {@value #MAX_RECORDED_FAILURES}; see {@link #getFailureCount()}.
+     * @throws Exception if the producer fails.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Failure<T>> run(Producer<T> producer, final Worker<T> worker) throws Exception {
+
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+        ExecutorService pool = Workers.newPool(name, workers);
+        List<Future<?>> running = new ArrayList<>();
+
+        try {
+            for(int i = 0; i < workers; i++) {
+                running.add(pool.submit(() -> {
+                    while(true) {
+                        Object next = queue.take();
+                        if(next == END) {
+                            return null;
+                        }
+                        T item = (T) next;
+                        try {
+                            worker.process(item);
+                        } catch (InterruptedException ie) {
+                            throw ie;
+                        } catch (Exception e) {
+                            if(failureCount.incrementAndGet() <= MAX_RECORDED_FAILURES) {
+                                failures.add(new Failure<>(item, e));
+                            }
+                        }
+                    }
+                }));
+            }
+
+            Exception producerFailure = null;
+            try {
+                producer.produce(item -> {
+                    if(!enqueue(queue, item, running)) {
+                        throw new IllegalStateException("every " + name + " worker has stopped");
+                    }
+                });
+            } catch (InterruptedException ie) {
+                throw ie;
+            } catch (Exception e) {
+                producerFailure = e;
+            }
+
+            for(int i = 0; i < workers; i++) {
+                if(!enqueue(queue, END, running)) {
+                    break;
+                }
+            }
+            for(Future<?> future : running) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    throw Workers.unwrap(ee);
+                }
+            }
+            if(producerFailure != null) {
+                throw producerFailure;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return new ArrayList<>(failures);
+    }
+
+    /**
+     * Queue {@code item}, waiting for space only while a worker is left to make it. Workers catch every
+     * Exception, so one that stops early was killed by an Error, which is rethrown when its future is read.
+     *
+     * @return false if every worker has stopped and the item was not queued.
+     */
+    private static boolean enqueue(BlockingQueue<Object> queue, Object item, List<Future<?>> running)
+            throws InterruptedException {
+
+        while(!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            boolean stopped = true;
+            for(Future<?> future : running) {
+                stopped &= future.isDone();
+            }
+            if(stopped) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+}
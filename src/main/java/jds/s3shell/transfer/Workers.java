@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.transfer;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for the worker pools used by the transfer commands.
+ *
+ * @author jsvede
+ */
+public class Workers {
+
+    private Workers() {}
+
+    /**
+     * Creates a fixed size pool of daemon threads so an abandoned transfer never keeps the shell from exiting.
+     *
+     * @param name - the prefix used for the thread names.
+     * @param threads - the number of threads in the pool.
+     * @return the new {@code ExecutorService}.
+     */
+    public static ExecutorService newPool(final String name, int threads) {
+
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+
+    /**
+     * Re-throws the cause of an {@code ExecutionException} so callers see the original failure.
+     *
+     * @param ee - the exception thrown by {@code Future.get()}.
+     * @return never returns normally; declared so callers can write {@code throw unwrap(ee)}.
+     * @throws Exception the underlying cause.
+     */
+    public static Exception unwrap(ExecutionException ee) throws Exception {
+
+        Throwable cause = ee.getCause();
+        if(cause instanceof Exception) {
+            throw (Exception) cause;
+        }
+        if(cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw ee;
+    }
+}
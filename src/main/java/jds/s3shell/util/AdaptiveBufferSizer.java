@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+/**
+ * Picks the buffer size for a single stream by hill climbing on measured throughput: the size doubles
+ * while each measurement window is noticeably faster than the previous one and halves again when
+ * throughput drops. One instance belongs to one copy loop and is not thread safe.
+ *
+ * @author jsvede
+ */
+public class AdaptiveBufferSizer {
+
+    private static final long WINDOW_NANOS = 200L * 1000L * 1000L;
+
+    private static final double GROW_THRESHOLD = 1.10;
+
+    private static final double SHRINK_THRESHOLD = 0.80;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private int size;
+
+    private long windowBytes;
+
+    private long windowStart = System.nanoTime();
+
+    private double lastRate = -1;
+
+    public AdaptiveBufferSizer(int initialSize, int minSize, int maxSize) {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.size = Math.min(this.maxSize, Math.max(minSize, initialSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Record that {@code bytes} more bytes were copied.
+     *
+     * @return the buffer size to use from now on.
+     */
+    public int record(long bytes) {
+
+        windowBytes += bytes;
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if(elapsed < WINDOW_NANOS) {
+            return size;
+        }
+
+        double rate = windowBytes * 1e9 / elapsed;
+        if(lastRate < 0 || rate > lastRate * GROW_THRESHOLD) {
+            size = Math.min(maxSize, size * 2);
+        } else if(rate < lastRate * SHRINK_THRESHOLD) {
+            size = Math.max(minSize, size / 2);
+        }
+        lastRate = rate;
+        windowBytes = 0;
+        windowStart = now;
+        return size;
+    }
+}
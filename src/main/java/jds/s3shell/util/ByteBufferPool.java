@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct {@code ByteBuffer}s shared by the download workers. Buffers are grouped in power of
+ * two size classes between {@link #MIN_BUFFER_SIZE} and {@link #MAX_BUFFER_SIZE}; only a bounded number
+ * of buffers per class is kept so idle memory stays small.
+ *
+ * @author jsvede
+ */
+@Component
+public class ByteBufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    public static final int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_POOLED_PER_CLASS = 16;
+
+    private final List<Queue<ByteBuffer>> pooled;
+
+    private final AtomicInteger[] pooledCounts;
+
+    public ByteBufferPool() {
+
+        int classes = classFor(MAX_BUFFER_SIZE) + 1;
+        pooled = new ArrayList<>(classes);
+        pooledCounts = new AtomicInteger[classes];
+        for(int i = 0; i < classes; i++) {
+            pooled.add(new ConcurrentLinkedQueue<>());
+            pooledCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @param size - the number of bytes needed.
+     * @return a cleared direct buffer with a capacity of at least {@code size}, capped at {@link #MAX_BUFFER_SIZE}.
+     */
+    public ByteBuffer acquire(int size) {
+
+        int sizeClass = classFor(size);
+        ByteBuffer buffer = pooled.get(sizeClass).poll();
+        if(buffer == null) {
+            return ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+        }
+        pooledCounts[sizeClass].decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}.
+     */
+    public void release(ByteBuffer buffer) {
+
+        if(buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int sizeClass = classFor(buffer.capacity());
+        if((MIN_BUFFER_SIZE << sizeClass) != buffer.capacity()) {
+            return;
+        }
+        if(pooledCounts[sizeClass].incrementAndGet() <= MAX_POOLED_PER_CLASS) {
+            pooled.get(sizeClass).offer(buffer);
+        } else {
+            pooledCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    private static int classFor(int size) {
+
+        int sizeClass = 0;
+        int capacity = MIN_BUFFER_SIZE;
+        while(capacity < size && capacity < MAX_BUFFER_SIZE) {
+            capacity <<= 1;
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+/**
+ * Parses human friendly byte counts such as "16MB", "512k" or "1048576".
+ *
+ * @author jsvede
+ */
+public class ByteSizes {
+
+    public static final long KB = 1024L;
+    public static final long MB = KB * 1024L;
+    public static final long GB = MB * 1024L;
+    public static final long TB = GB * 1024L;
+
+    private ByteSizes() {}
+
+    /**
+     * Parse a byte count. The number may be followed by one of the units K, M, G or T, optionally
+     * followed by a 'B' and a '/s' which is ignored so that rates can be parsed the same way.
+     *
+     * @param value - the {@code String} to parse, e.g. "8MB" or "50MB/s".
+     *
+     * @return the number of bytes.
+     * @throws IllegalArgumentException if the value cannot be parsed.
+     */
+    public static long parse(String value) {
+
+        if(value == null || value.trim().length() == 0) {
+            throw new IllegalArgumentException("A byte size is required");
+        }
+
+        String normalized = value.trim().toUpperCase();
+        if(normalized.endsWith("/S")) {
+            normalized = normalized.substring(0, normalized.length() - 2);
+        }
+        if(normalized.endsWith("B")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        long multiplier = 1;
+        if(normalized.length() > 0) {
+            switch(normalized.charAt(normalized.length() - 1)) {
+                case 'K': multiplier = KB; break;
+                case 'M': multiplier = MB; break;
+                case 'G': multiplier = GB; break;
+                case 'T': multiplier = TB; break;
+                default: break;
+            }
+        }
+        if(multiplier > 1) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        try {
+            double number = Double.parseDouble(normalized.trim());
+            if(number < 0) {
+                throw new IllegalArgumentException("Byte size cannot be negative: " + value);
+            }
+            return (long) (number * multiplier);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Unable to parse byte size '" + value + "'", nfe);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies a stream into a region of a {@code FileChannel}. Each buffer is filled completely before it is
+ * written so the number of write calls stays low, and the buffer size follows the measured throughput
+ * through an {@link AdaptiveBufferSizer}. When memory mapping is enabled and the length is known the
+ * destination region is mapped and filled directly, which avoids the write calls entirely.
+ *
+ * @author jsvede
+ */
+public class ChannelWriter {
+
+    private static final long MAP_WINDOW_SIZE = 64L * 1024L * 1024L;
+
+    private final ByteBufferPool pool;
+
+    private final int initialBufferSize;
+
+    private final int maxBufferSize;
+
+    private final boolean memoryMapped;
+
+    /**
+     * @param pool - the pool to take direct buffers from.
+     * @param initialBufferSize - the buffer size to start with.
+     * @param maxBufferSize - the largest buffer size the sizer may choose.
+     * @param memoryMapped - true to write through mapped regions when the length is known.
+     */
+    public ChannelWriter(ByteBufferPool pool, int initialBufferSize, int maxBufferSize, boolean memoryMapped) {
+        this.pool = pool;
+        this.initialBufferSize = initialBufferSize;
+        this.maxBufferSize = Math.min(maxBufferSize, ByteBufferPool.MAX_BUFFER_SIZE);
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Copy {@code source} into {@code channel} starting at {@code position}. The source is not closed.
+     *
+     * @param length - the expected number of bytes or -1 if unknown.
+     * @param progress - updated as bytes are written; may be {@code null}.
+     * @return the number of bytes copied.
+     */
+    public long copy(InputStream source, FileChannel channel, long position, long length,
+                     TransferProgress progress) throws IOException {
+
+        AdaptiveBufferSizer sizer = new AdaptiveBufferSizer(initialBufferSize, 1024, maxBufferSize);
+        // an InputStream can only read into an array, so every read goes through one staging array that grows
+        // with the sizer; each read asks the stream for the whole adaptive size
+        byte[] staging = new byte[sizer.size()];
+        if(memoryMapped && length > 0) {
+            return copyMapped(source, channel, position, length, progress, sizer, staging);
+        }
+
+        int size = sizer.size();
+        ByteBuffer buffer = pool.acquire(size);
+        long copied = 0;
+        try {
+            while(true) {
+                int filled = fill(source, staging, size);
+                if(filled > 0) {
+                    buffer.clear();
+                    buffer.put(staging, 0, filled);
+                    buffer.flip();
+                    while(buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    copied += filled;
+                    if(progress != null) {
+                        progress.add(filled);
+                    }
+                }
+                if(filled < size) {
+                    break;
+                }
+
+                size = sizer.record(filled);
+                if(size > staging.length) {
+                    staging = new byte[size];
+                }
+                if(size > buffer.capacity()) {
+                    pool.release(buffer);
+                    buffer = pool.acquire(size);
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return copied;
+    }
+
+    /**
+     * Fill mapped windows of the destination region from the stream. Each window is forced once it is filled
+     * so the bytes are on disk before the caller records the range as written.
+     */
+    private long copyMapped(InputStream source, FileChannel channel, long position, long length,
+                            TransferProgress progress, AdaptiveBufferSizer sizer, byte[] staging) throws IOException {
+
+        int size = sizer.size();
+        long copied = 0;
+        while(copied < length) {
+            long windowSize = Math.min(MAP_WINDOW_SIZE, length - copied);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position + copied, windowSize);
+            while(window.hasRemaining()) {
+                int read = source.read(staging, 0, Math.min(size, window.remaining()));
+                if(read == -1) {
+                    window.force();
+                    return copied;
+                }
+                window.put(staging, 0, read);
+                copied += read;
+                if(progress != null) {
+                    progress.add(read);
+                }
+
+                size = sizer.record(read);
+                if(size > staging.length) {
+                    staging = new byte[size];
+                }
+            }
+            window.force();
+        }
+        return copied;
+    }
+
+    /**
+     * Read until {@code buffer} holds {@code length} bytes or the stream ends.
+     *
+     * @return the number of bytes read; less than {@code length} only at the end of the stream.
+     */
+    private static int fill(InputStream source, byte[] buffer, int length) throws IOException {
+
+        int filled = 0;
+        while(filled < length) {
+            int read = source.read(buffer, filled, length - filled);
+            if(read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for comparing local content with S3 ETags.
+ *
+ * @author jsvede
+ */
+public class Checksums {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Checksums() {}
+
+    public static MessageDigest newMd5() {
+
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("MD5 is not available", nsae);
+        }
+    }
+
+    /**
+     * @return the hex encoded MD5 of the file's content.
+     */
+    public static String md5Hex(File file) throws IOException {
+
+        MessageDigest digest = newMd5();
+        byte[] buffer = new byte[ByteBufferPool.MIN_BUFFER_SIZE];
+        try(InputStream in = new FileInputStream(file)) {
+            int length;
+            while((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+
+        char[] chars = new char[bytes.length * 2];
+        for(int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    public static byte[] fromHex(String hex) {
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(i * 2), 16) << 4) | Character.digit(hex.charAt(i * 2 + 1), 16));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return true if the ETag is the plain MD5 of the content, which is the case for objects uploaded
+     * with a single PUT without KMS encryption.
+     */
+    public static boolean isPlainMd5(String etag) {
+
+        if(etag == null || etag.length() != 32) {
+            return false;
+        }
+        for(int i = 0; i < etag.length(); i++) {
+            if(Character.digit(etag.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
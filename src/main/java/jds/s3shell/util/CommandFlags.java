@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the optional flags argument that some commands take as their first parameter, for example
+ * {@code get -r logs/ /tmp/logs}. Several flags can be given in one quoted argument:
+ * {@code get "-r --limit=50MB/s" logs/ /tmp/logs}.
+ * <p>
+ * Short flags may be combined ({@code -rb}) and may carry a number ({@code -d2} or {@code -d 2}); long
+ * options are written as {@code --name} or {@code --name=value}.
+ *
+ * @author jsvede
+ */
+public class CommandFlags {
+
+    private final Map<Character, String> shortFlags = new HashMap<>();
+
+    private final Map<String, String> longOptions = new HashMap<>();
+
+    private CommandFlags() {}
+
+    /**
+     * @param flags - the flags argument as typed by the user.
+     * @return the parsed flags.
+     * @throws IllegalArgumentException if the argument does not look like flags.
+     */
+    public static CommandFlags parse(String flags) {
+
+        CommandFlags parsed = new CommandFlags();
+        if(flags == null) {
+            return parsed;
+        }
+        Character lastFlag = null;
+        for(String token : flags.trim().split("\\s+")) {
+            if(token.length() == 0) {
+                continue;
+            }
+            if(lastFlag != null && token.chars().allMatch(Character::isDigit)) {
+                parsed.shortFlags.put(lastFlag, token);
+                lastFlag = null;
+                continue;
+            }
+            lastFlag = token.length() == 2 && token.charAt(0) == '-' && token.charAt(1) != '-' ? token.charAt(1) : null;
+            if(token.startsWith("--") && token.length() > 2) {
+                int equals = token.indexOf('=');
+                if(equals > 0) {
+                    parsed.longOptions.put(token.substring(2, equals), token.substring(equals + 1));
+                } else {
+                    parsed.longOptions.put(token.substring(2), "true");
+                }
+            } else if(token.startsWith("-") && token.length() > 1) {
+                int i = 1;
+                while(i < token.length()) {
+                    char flag = token.charAt(i++);
+                    int valueStart = i;
+                    while(i < token.length() && Character.isDigit(token.charAt(i))) {
+                        i++;
+                    }
+                    parsed.shortFlags.put(flag, i > valueStart ? token.substring(valueStart, i) : "true");
+                }
+            } else {
+                throw new IllegalArgumentException("'" + token + "' is not a flag; flags start with - or --");
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return true if {@code flags} starts like a flags argument rather than a path or pattern.
+     */
+    public static boolean isFlags(String flags) {
+        return flags != null && flags.trim().startsWith("-");
+    }
+
+    public boolean has(char flag) {
+        return shortFlags.containsKey(flag);
+    }
+
+    public boolean has(String option) {
+        return longOptions.containsKey(option);
+    }
+
+    public String get(String option, String defaultValue) {
+        String value = longOptions.get(option);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * @return the number given with a long option that has no short flag, e.g. {@code --concurrency=128}.
+     */
+    public int getInt(String option, int defaultValue) {
+
+        String value = longOptions.get(option);
+        if(value == null || value.equals("true")) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("--" + option + " must be a number: " + value, nfe);
+        }
+    }
+
+    /**
+     * @return the number given with a long option or a short flag, e.g. {@code --parallel=8} or {@code -d2}.
+     */
+    public int getInt(String option, char flag, int defaultValue) {
+
+        String value = longOptions.get(option);
+        if(value == null) {
+            value = shortFlags.get(flag);
+        }
+        if(value == null || value.equals("true")) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("--" + option + " must be a number: " + value, nfe);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Measures how fast the local write paths can absorb a download. The source is a synthetic in memory
+ * stream so the numbers show the cost on our side only: the original 1KB {@code FileOutputStream} loop,
+ * the adaptive {@code ChannelWriter} and the memory mapped {@code ChannelWriter}.
+ *
+ * @author jsvede
+ */
+public class DownloadBenchmark {
+
+    private static final int LEGACY_BUFFER_SIZE = 1024;
+
+    private final ByteBufferPool pool;
+
+    private final PrintStream out;
+
+    public DownloadBenchmark(ByteBufferPool pool, PrintStream out) {
+        this.pool = pool;
+        this.out = out;
+    }
+
+    /**
+     * Write an object of each size with every write path and print the throughput.
+     *
+     * @param directory - where the temporary files are written.
+     * @param sizes - the object sizes to test.
+     */
+    public void run(File directory, long[] sizes) throws IOException {
+
+        out.println(StringPaddingUtil.pad("size", 12) + StringPaddingUtil.pad("stream 1KB", 16) +
+                    StringPaddingUtil.pad("channel", 16) + StringPaddingUtil.pad("mmap channel", 16));
+
+        for(long size : sizes) {
+            if(directory.getUsableSpace() < size + size / 10) {
+                out.println(FileUtils.byteCountToDisplaySize(size) + " skipped; not enough free space in " + directory);
+                continue;
+            }
+            File target = File.createTempFile("s3shell-bench", ".bin", directory);
+            try {
+                double legacy = streamLoop(target, size);
+                double channel = channelWriter(target, size, false);
+                double mapped = channelWriter(target, size, true);
+                out.println(StringPaddingUtil.pad(FileUtils.byteCountToDisplaySize(size), 12) +
+                            StringPaddingUtil.pad(rate(legacy), 16) + StringPaddingUtil.pad(rate(channel), 16) +
+                            StringPaddingUtil.pad(rate(mapped), 16));
+            } finally {
+                target.delete();
+            }
+        }
+    }
+
+    private double streamLoop(File target, long size) throws IOException {
+
+        InputStream source = new SyntheticInputStream(size);
+        long start = System.nanoTime();
+        try(FileOutputStream fos = new FileOutputStream(target)) {
+            byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+            int length;
+            while((length = source.read(buffer)) != -1) {
+                fos.write(buffer, 0, length);
+            }
+            fos.flush();
+        }
+        return size * 1e9 / (System.nanoTime() - start);
+    }
+
+    private double channelWriter(File target, long size, boolean memoryMapped) throws IOException {
+
+        ChannelWriter writer = new ChannelWriter(pool, ByteBufferPool.MIN_BUFFER_SIZE, ByteBufferPool.MAX_BUFFER_SIZE,
+                                                 memoryMapped);
+        InputStream source = new SyntheticInputStream(size);
+        long start = System.nanoTime();
+        try(RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(0);
+            writer.copy(source, file.getChannel(), 0, size, null);
+        }
+        return size * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static String rate(double bytesPerSecond) {
+        return FileUtils.byteCountToDisplaySize((long) bytesPerSecond) + "/s";
+    }
+
+    /**
+     * Produces {@code size} bytes from a fixed pattern without allocating.
+     */
+    private static class SyntheticInputStream extends InputStream {
+
+        private static final byte[] PATTERN = new byte[64 * 1024];
+
+        static {
+            for(int i = 0; i < PATTERN.length; i++) {
+                PATTERN[i] = (byte) (i * 31);
+            }
+        }
+
+        private long remaining;
+
+        SyntheticInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if(remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return PATTERN[(int) (remaining % PATTERN.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if(remaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(Math.min(length, remaining), PATTERN.length);
+            System.arraycopy(PATTERN, 0, buffer, offset, count);
+            remaining -= count;
+            return count;
+        }
+    }
+}
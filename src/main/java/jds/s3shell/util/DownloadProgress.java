@@ -27,13 +27,13 @@
  */
 package jds.s3shell.util;
 
-import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 
 /**
  * A utility class for writing file read progress to the output stream.
@@ -43,77 +43,69 @@ import java.io.PrintStream;
 @Component
 public class DownloadProgress {
 
+    @Autowired
+    private ByteBufferPool bufferPool;
+
     public DownloadProgress() {}
 
+    /**
+     * Creates a progress tracker that several workers can update concurrently.
+     *
+     * @param fileSize - the total file size.
+     * @param segments - the number of visual segments desired.
+     * @param out - the PrintStream you want to write the progress to.
+     * @return a new {@code TransferProgress}.
+     */
+    public TransferProgress newProgress(long fileSize, long segments, PrintStream out) {
+        return new TransferProgress(fileSize, segments, out);
+    }
+
     /**
      * Prints file read progress to the passed in PrintStream.
      *
      * @param fileSize - the total file size.
-     * @param bufferSize - the size of the buffer being used to read the stream.
+     * @param bufferSize - the initial size of the buffer being used to read the stream; it grows with throughput.
      * @param segments - the number of visual segments desired.
      * @param out - - the PrintStream you want to write the progress to.
      * @throws Exception
      */
     public boolean readFile(InputStream source, String destinationFileName, double fileSize, int bufferSize, long segments, PrintStream out) throws Exception {
 
-        File destinationFile = new File(destinationFileName);
-
-        if(!destinationFile.getParentFile().exists()) {
-            destinationFile.getParentFile().mkdirs();
-        }
-        if(!destinationFile.exists()) {
-            destinationFile.createNewFile();
-        }
-        FileOutputStream fos = new FileOutputStream(destinationFile);
-
-        double segmentSize = fileSize/segments;
-
-        double segmentByteCounter = segmentSize;
+        ChannelWriter writer = new ChannelWriter(bufferPool, bufferSize, ByteBufferPool.MAX_BUFFER_SIZE, false);
+        return readFile(source, destinationFileName, fileSize, writer, segments, out);
+    }
 
-        long byteCounter = 0;
-        long segmentCounter = 0;
-        byte[] buffer = new byte[bufferSize];
+    /**
+     * Prints file read progress to the passed in PrintStream while {@code writer} copies the stream into
+     * the destination file.
+     *
+     * @param fileSize - the total file size.
+     * @param writer - the {@code ChannelWriter} that copies the stream.
+     * @param segments - the number of visual segments desired.
+     * @param out - - the PrintStream you want to write the progress to.
+     * @throws Exception
+     */
+    public boolean readFile(InputStream source, String destinationFileName, double fileSize, ChannelWriter writer, long segments, PrintStream out) throws Exception {
 
-        int length = 0;
-        while ((length = source.read(buffer)) != -1) {
-            fos.write(buffer, 0, length);
-            byteCounter += length;
+        File destinationFile = new File(destinationFileName);
 
-            if(byteCounter > segmentByteCounter) {
-                fileProgress((long)fileSize, byteCounter, segmentCounter, segments, out);
-                segmentByteCounter += segmentSize;
-                segmentCounter++;
-            }
-        }
-        fos.flush();
-        fos.close();
-        source.close();
-
-        final StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for(int a=0; a<64-1;a++){
-            sb.append("=");
+        if(destinationFile.getParentFile() != null && !destinationFile.getParentFile().exists()) {
+            destinationFile.getParentFile().mkdirs();
         }
-        sb.append("][" + FileUtils.byteCountToDisplaySize((long) fileSize) + "/" + FileUtils.byteCountToDisplaySize((long)fileSize) + "]");
-        System.out.println(sb.toString());
 
-        return true;
-    }
+        TransferProgress progress = newProgress((long) fileSize, segments, out);
 
-    private void fileProgress(long fileSize, long fileProgress, long progress, long destination, PrintStream out) throws Exception {
-
-        final StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for(int y=0; y<progress; y++) {
-            sb.append("=");
-        }
-        for(int z=1; z<destination-progress;z++) {
-            sb.append(" ");
+        try(RandomAccessFile file = new RandomAccessFile(destinationFile, "rw")) {
+            file.setLength(0);
+            long written = writer.copy(source, file.getChannel(), 0, (long) fileSize, progress);
+            file.setLength(written);
+        } finally {
+            source.close();
         }
-        sb.append("][" + FileUtils.byteCountToDisplaySize(fileProgress) + "/" + FileUtils.byteCountToDisplaySize((long)fileSize) + "]\r");
 
-        System.out.print(sb.toString());
+        progress.complete();
 
+        return true;
     }
 
 }
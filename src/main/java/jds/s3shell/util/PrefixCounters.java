@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+/**
+ * An open addressing hash table from key prefixes to an object count and a byte count, held in primitive arrays.
+ * A prefix is looked up as a region of a longer key, so counting a key under each of its parent prefixes only
+ * allocates a {@code String} the first time a prefix is seen; memory grows with the number of distinct
+ * prefixes, not with the number of keys counted.
+ *
+ * @author jsvede
+ */
+public class PrefixCounters {
+
+    private String[] prefixes;
+
+    private long[] counts;
+
+    private long[] bytes;
+
+    private int size;
+
+    public PrefixCounters() {
+        this(64);
+    }
+
+    public PrefixCounters(int expected) {
+
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        prefixes = new String[capacity];
+        counts = new long[capacity];
+        bytes = new long[capacity];
+    }
+
+    /**
+     * Count one object of {@code size} bytes under the first {@code length} characters of {@code key}.
+     */
+    public void add(String key, int length, long size) {
+
+        int slot = slot(key, length);
+        if(prefixes[slot] == null) {
+            prefixes[slot] = key.substring(0, length);
+            if(++this.size * 2 > prefixes.length) {
+                grow();
+                slot = slot(key, length);
+            }
+        }
+        counts[slot]++;
+        bytes[slot] += size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the prefixes counted so far, in no particular order.
+     */
+    public String[] getPrefixes() {
+
+        String[] result = new String[size];
+        int i = 0;
+        for(String prefix : prefixes) {
+            if(prefix != null) {
+                result[i++] = prefix;
+            }
+        }
+        return result;
+    }
+
+    public long getCount(String prefix) {
+
+        int slot = slot(prefix, prefix.length());
+        return prefixes[slot] == null ? 0 : counts[slot];
+    }
+
+    public long getBytes(String prefix) {
+
+        int slot = slot(prefix, prefix.length());
+        return prefixes[slot] == null ? 0 : bytes[slot];
+    }
+
+    /**
+     * @return the slot holding the prefix, or the empty slot where it belongs.
+     */
+    private int slot(String key, int length) {
+
+        int hash = 0;
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+        int mask = prefixes.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while(true) {
+            String prefix = prefixes[slot];
+            if(prefix == null || (prefix.length() == length && key.regionMatches(0, prefix, 0, length))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+
+        String[] oldPrefixes = prefixes;
+        long[] oldCounts = counts;
+        long[] oldBytes = bytes;
+        prefixes = new String[oldPrefixes.length * 2];
+        counts = new long[prefixes.length];
+        bytes = new long[prefixes.length];
+        for(int i = 0; i < oldPrefixes.length; i++) {
+            if(oldPrefixes[i] != null) {
+                int slot = slot(oldPrefixes[i], oldPrefixes[i].length());
+                prefixes[slot] = oldPrefixes[i];
+                counts[slot] = oldCounts[i];
+                bytes[slot] = oldBytes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that limits a byte rate across any number of threads. Instead of counting tokens the
+ * bucket keeps the time at which the bytes granted so far have been paid for; taking bytes is a single
+ * compare-and-set on that time followed by sleeping off the debt, so there is no lock on the hot path.
+ * Up to 100ms worth of bytes may be taken at once after the bucket has been idle.
+ *
+ * @author jsvede
+ */
+public class TokenBucket {
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong paidUntil = new AtomicLong(System.nanoTime());
+
+    private volatile long bytesPerSecond;
+
+    /**
+     * @param bytesPerSecond - the rate limit; 0 for no limit.
+     */
+    public TokenBucket(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Change the rate; threads already waiting finish the wait they were given.
+     *
+     * @param bytesPerSecond - the new rate limit; 0 for no limit.
+     */
+    public void setRate(long bytesPerSecond) {
+
+        if(bytesPerSecond < 0) {
+            throw new IllegalArgumentException("rate cannot be negative: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        paidUntil.set(System.nanoTime());
+    }
+
+    /**
+     * Take {@code bytes} from the bucket, sleeping until the rate allows them.
+     */
+    public void acquire(long bytes) throws InterruptedException {
+
+        long rate = bytesPerSecond;
+        if(rate <= 0 || bytes <= 0) {
+            return;
+        }
+        long cost = (long) (bytes * NANOS_PER_SECOND / rate);
+
+        long now;
+        long paid;
+        long updated;
+        do {
+            now = System.nanoTime();
+            paid = paidUntil.get();
+            updated = Math.max(paid, now - BURST_NANOS) + cost;
+        } while(!paidUntil.compareAndSet(paid, updated));
+
+        long wait = updated - now;
+        if(wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014, Jon Svede
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    * Redistributions of source code must retain the above copyright notice,
+ *      this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package jds.s3shell.util;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the number of bytes transferred for a single file and renders the progress bar. Instances
+ * are safe to update from several worker threads at once; the bar is only redrawn when a new
+ * segment has been reached so workers don't contend on the output stream.
+ *
+ * @author jsvede
+ */
+public class TransferProgress {
+
+    private final long fileSize;
+
+    private final long segments;
+
+    private final PrintStream out;
+
+    private final AtomicLong byteCounter = new AtomicLong();
+
+    private final AtomicLong segmentCounter = new AtomicLong();
+
+    /**
+     * @param fileSize - the total file size.
+     * @param segments - the number of visual segments desired.
+     * @param out - the PrintStream you want to write the progress to; may be {@code null} to only count.
+     */
+    public TransferProgress(long fileSize, long segments, PrintStream out) {
+        this.fileSize = fileSize;
+        this.segments = segments;
+        this.out = out;
+    }
+
+    /**
+     * Record that {@code length} more bytes have been transferred.
+     *
+     * @param length - the number of bytes just transferred.
+     */
+    public void add(long length) {
+
+        long progress = byteCounter.addAndGet(length);
+
+        if(out == null || fileSize <= 0) {
+            return;
+        }
+
+        long segment = Math.min(segments, progress * segments / fileSize);
+        long shown = segmentCounter.get();
+        if(segment > shown && segmentCounter.compareAndSet(shown, segment)) {
+            render(progress, segment, "\r");
+        }
+    }
+
+    /**
+     * @return the number of bytes transferred so far.
+     */
+    public long getBytes() {
+        return byteCounter.get();
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Draw the completed bar and move to the next line.
+     */
+    public void complete() {
+
+        if(out != null) {
+            render(fileSize, segments, "\n");
+        }
+    }
+
+    private synchronized void render(long progress, long segment, String terminator) {
+
+        final StringBuilder sb = new StringBuilder();
+        final long width = segments - 1;
+        final long filled = Math.min(segment, width);
+        sb.append("[");
+        for(long y=0; y<filled; y++) {
+            sb.append("=");
+        }
+        for(long z=filled; z<width; z++) {
+            sb.append(" ");
+        }
+        sb.append("][").append(FileUtils.byteCountToDisplaySize(progress)).append("/")
+          .append(FileUtils.byteCountToDisplaySize(fileSize)).append("]").append(terminator);
+
+        out.print(sb.toString());
+    }
+}